@@ -1,26 +1,158 @@
 package io.github.albertus82.git.engine;
 
-import org.eclipse.jface.dialogs.MessageDialog;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.layout.GridDataFactory;
+import org.eclipse.jface.layout.GridLayoutFactory;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ColumnLabelProvider;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.StructuredSelection;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.TableViewerColumn;
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.Text;
+
+import io.github.albertus82.git.engine.ConflictResolver.Conflict;
+import io.github.albertus82.git.engine.ConflictResolver.Side;
+
+/**
+ * Lists all the conflicts in a single table, so that they can be resolved
+ * together: a resolution is applied to the selected rows, which can also be
+ * selected with a pattern ({@code .gitignore} syntax).
+ */
+public final class ConflictResolutionDialog extends Dialog {
+
+	private static final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM).withZone(ZoneId.systemDefault());
+
+	private final List<Conflict> conflicts;
+	private final Map<String, ConflictChoice> choices = new LinkedHashMap<>();
+
+	private TableViewer tableViewer;
+	private Text patternText;
+
+	private ConflictResolutionDialog(final Shell parent, final List<Conflict> conflicts) {
+		super(parent);
+		this.conflicts = conflicts;
+		setShellStyle(getShellStyle() | SWT.RESIZE);
+	}
+
+	/** @return the choice for every conflicting path, or nothing if the dialog is closed without resolving */
+	static Optional<Map<String, ConflictChoice>> ask(final Shell parent, final List<Conflict> conflicts) {
+		final var dialog = new ConflictResolutionDialog(parent, conflicts);
+		return dialog.open() == OK ? Optional.of(dialog.choices) : Optional.empty();
+	}
+
+	@Override
+	protected void configureShell(final Shell shell) {
+		super.configureShell(shell);
+		shell.setText("Merge Conflicts");
+	}
 
-public final class ConflictResolutionDialog {
+	@Override
+	protected Control createDialogArea(final Composite parent) {
+		final var area = (Composite) super.createDialogArea(parent);
+		GridLayoutFactory.swtDefaults().numColumns(5).applyTo(area);
 
-	private ConflictResolutionDialog() {}
+		final var label = new Label(area, SWT.WRAP);
+		label.setText(conflicts.size() + " conflicts detected; THEIRS is kept until they are resolved, OURS can still be restored. Select the files and choose how to resolve them:");
+		GridDataFactory.fillDefaults().span(5, 1).applyTo(label);
 
-	public static ConflictChoice ask(Shell parent, String filePath) {
+		tableViewer = new TableViewer(area, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI);
+		final var table = tableViewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		GridDataFactory.fillDefaults().grab(true, true).span(5, 1).hint(convertWidthInCharsToPixels(120), convertHeightInCharsToPixels(20)).applyTo(table);
+		addColumn("File", Conflict::path);
+		addColumn("Ours", conflict -> formatSize(conflict.ours()));
+		addColumn("Theirs", conflict -> formatSize(conflict.theirs()));
+		addColumn("Modified", conflict -> conflict.lastModified().map(dateTimeFormatter::format).orElse(""));
+		addColumn("Resolution", conflict -> choices.containsKey(conflict.path()) ? choices.get(conflict.path()).name() : "");
+		tableViewer.setContentProvider(ArrayContentProvider.getInstance());
+		tableViewer.setInput(conflicts);
+		for (final TableColumn column : table.getColumns()) {
+			column.pack();
+		}
 
-		final String[] buttons = { "Keep OURS", "Keep THEIRS", "Keep BOTH" };
+		patternText = new Text(area, SWT.BORDER);
+		patternText.setMessage("Pattern, e.g. *.docx or /docs/");
+		GridDataFactory.fillDefaults().grab(true, false).applyTo(patternText);
+		addButton(area, "Select matching", this::selectMatching);
 
-		final var dialog = new MessageDialog(parent, "Merge Conflict", null, "Conflict detected in:\n\n" + filePath + "\n\nChoose how to resolve:", MessageDialog.QUESTION, buttons, 0);
+		final Map<ConflictChoice, String> labels = new EnumMap<>(ConflictChoice.class);
+		labels.put(ConflictChoice.OURS, "Keep OURS");
+		labels.put(ConflictChoice.THEIRS, "Keep THEIRS");
+		labels.put(ConflictChoice.BOTH, "Keep BOTH");
+		labels.forEach((choice, text) -> addButton(area, text, () -> choose(choice)));
 
-		final var result = dialog.open();
+		return area;
+	}
+
+	@Override
+	protected void createButtonsForButtonBar(final Composite parent) {
+		super.createButtonsForButtonBar(parent);
+		getButton(IDialogConstants.OK_ID).setEnabled(false);
+	}
+
+	private void addColumn(final String title, final Function<Conflict, String> text) {
+		final var column = new TableViewerColumn(tableViewer, SWT.NONE);
+		column.getColumn().setText(title);
+		column.setLabelProvider(new ColumnLabelProvider() {
+			@Override
+			public String getText(final Object element) {
+				return text.apply((Conflict) element);
+			}
+		});
+	}
+
+	private static void addButton(final Composite parent, final String text, final Runnable action) {
+		final var button = new Button(parent, SWT.PUSH);
+		button.setText(text);
+		GridDataFactory.swtDefaults().applyTo(button);
+		button.addListener(SWT.Selection, e -> action.run());
+	}
+
+	private void selectMatching() {
+		final var rule = new FastIgnoreRule(patternText.getText().trim());
+		final List<Conflict> matching = new ArrayList<>();
+		if (!rule.isEmpty()) {
+			for (final var conflict : conflicts) {
+				if (rule.isMatch(conflict.path(), false)) {
+					matching.add(conflict);
+				}
+			}
+		}
+		tableViewer.setSelection(new StructuredSelection(matching), true);
+	}
+
+	private void choose(final ConflictChoice choice) {
+		for (final var element : ((IStructuredSelection) tableViewer.getSelection()).toList()) {
+			choices.put(((Conflict) element).path(), choice);
+		}
+		tableViewer.refresh();
+		getButton(IDialogConstants.OK_ID).setEnabled(choices.size() == conflicts.size());
+	}
 
-		return switch (result) {
-		case 0 -> ConflictChoice.OURS;
-		case 1 -> ConflictChoice.THEIRS;
-		case 2 -> ConflictChoice.BOTH;
-		default -> throw new IllegalStateException("Dialog closed");
-		};
+	private static String formatSize(final Side side) {
+		return side == null ? "(deleted)" : String.format("%,d bytes", side.size());
 	}
 
 }
@@ -0,0 +1,413 @@
+package io.github.albertus82.git.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.dircache.Checkout;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheCheckout.CheckoutMetadata;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeAlgorithm;
+import org.eclipse.jgit.merge.MergeFormatter;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Resolves the unmerged paths of the index all at once: the chosen side of
+ * every path is written to the work tree and the index is updated with a
+ * single write, instead of running a checkout for each path.
+ * <p>
+ * Text files can be merged line by line first, so that only the overlapping
+ * changes are left as conflicts, even when the attributes mark every file as
+ * binary. Conflicts can also be deferred: the merge is committed with THEIRS,
+ * so that the sync goes on; the final choice is then applied to the work tree
+ * only, and committed like any local change.
+ */
+class ConflictResolver {
+
+	/**
+	 * An unmerged path.
+	 *
+	 * @param ours our side, or {@code null} if deleted there
+	 * @param theirs their side, or {@code null} if deleted there
+	 * @param lastModified of the work tree file, if any
+	 */
+	record Conflict(String path, Side ours, Side theirs, Optional<Instant> lastModified) {}
+
+	/** One side of a conflict. */
+	record Side(ObjectId id, FileMode mode, long size) {}
+
+	/** Larger files are never merged line by line. */
+	static final int MAX_TEXT_MERGE_SIZE = 16 * 1024 * 1024;
+
+	private static final List<String> MERGE_SEQUENCE_NAMES = List.of("BASE", "OURS", "THEIRS");
+
+	private final Repository repository;
+	private final Path workTree;
+
+	ConflictResolver(final Repository repository) {
+		this.repository = repository;
+		this.workTree = repository.getWorkTree().toPath();
+	}
+
+	/** Reads the unmerged paths straight from the index, without walking the work tree. */
+	List<Conflict> getConflicts() throws IOException {
+		final var index = repository.readDirCache();
+		final List<Conflict> conflicts = new ArrayList<>();
+		try (final var reader = repository.newObjectReader()) {
+			for (final var stages : getStages(index).entrySet()) {
+				final var path = stages.getKey();
+				conflicts.add(new Conflict(path, toSide(stages.getValue()[DirCacheEntry.STAGE_2], reader), toSide(stages.getValue()[DirCacheEntry.STAGE_3], reader), getLastModified(path)));
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Merges both sides of the eligible text files line by line, with JGit's
+	 * three-way merge algorithm, and resolves in the index the paths whose
+	 * changes do not overlap. Paths without a common ancestor, binary content,
+	 * symbolic links, submodules and large file pointers are left alone.
+	 *
+	 * @param eligible selects the paths to try
+	 * @return the merged paths
+	 */
+	List<String> mergeText(final Predicate<String> eligible) throws IOException {
+		final List<String> merged = new ArrayList<>();
+		final DirCache index = repository.lockDirCache();
+		try (final var reader = repository.newObjectReader(); final var inserter = repository.newObjectInserter()) {
+			final var stages = getStages(index);
+			final var metadata = getCheckoutMetadata(index, stages.keySet().stream().filter(eligible).toList());
+			final Map<String, DirCacheEntry> resolved = new HashMap<>();
+			for (final var path : metadata.keySet()) {
+				final var entries = stages.get(path);
+				if (entries == null) {
+					continue;
+				}
+				final var result = merge(reader, entries[DirCacheEntry.STAGE_1], entries[DirCacheEntry.STAGE_2], entries[DirCacheEntry.STAGE_3]);
+				if (result.isPresent()) {
+					final var entry = new DirCacheEntry(path, DirCacheEntry.STAGE_0);
+					entry.setFileMode(entries[DirCacheEntry.STAGE_2].getFileMode());
+					entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, result.get()));
+					resolved.put(path, entry);
+				}
+			}
+			if (resolved.isEmpty()) {
+				return merged;
+			}
+			inserter.flush();
+
+			final var checkout = new Checkout(repository);
+			final var builder = index.builder();
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				final var entry = index.getEntry(i);
+				final var resolvedEntry = resolved.get(entry.getPathString());
+				if (resolvedEntry == null) {
+					builder.add(entry);
+				}
+				else if (entry.getStage() == DirCacheEntry.STAGE_2) { // once per path
+					checkout.checkout(resolvedEntry, metadata.get(entry.getPathString()), reader, null);
+					builder.add(resolvedEntry);
+					merged.add(entry.getPathString());
+				}
+			}
+			builder.finish();
+			index.write();
+			index.commit();
+		}
+		finally {
+			index.unlock();
+		}
+		return merged;
+	}
+
+	/** @return the merged content, or nothing if the changes overlap or cannot be merged as text */
+	private static Optional<byte[]> merge(final ObjectReader reader, final DirCacheEntry base, final DirCacheEntry ours, final DirCacheEntry theirs) throws IOException {
+		if (base == null || ours == null || theirs == null || !isPlainFile(ours.getFileMode()) || !isPlainFile(theirs.getFileMode()) || ours.getLength() > MAX_TEXT_MERGE_SIZE || theirs.getLength() > MAX_TEXT_MERGE_SIZE) {
+			return Optional.empty();
+		}
+		final List<RawText> texts = new ArrayList<>(3);
+		for (final var entry : List.of(base, ours, theirs)) {
+			final var loader = reader.open(entry.getObjectId(), Constants.OBJ_BLOB);
+			if (loader.getSize() > MAX_TEXT_MERGE_SIZE) {
+				return Optional.empty();
+			}
+			final var content = loader.getCachedBytes(MAX_TEXT_MERGE_SIZE);
+			if (RawText.isBinary(content) || LargeFileStore.isPointer(content)) { // the content of a pointer is elsewhere
+				return Optional.empty();
+			}
+			texts.add(new RawText(content));
+		}
+		final var result = new MergeAlgorithm().merge(RawTextComparator.DEFAULT, texts.get(0), texts.get(1), texts.get(2));
+		if (result.containsConflicts()) {
+			return Optional.empty();
+		}
+		final var out = new ByteArrayOutputStream();
+		new MergeFormatter().formatMerge(out, result, MERGE_SEQUENCE_NAMES, StandardCharsets.UTF_8); // no markers without conflicts
+		return Optional.of(out.toByteArray());
+	}
+
+	private static boolean isPlainFile(final FileMode mode) {
+		return FileMode.REGULAR_FILE.equals(mode) || FileMode.EXECUTABLE_FILE.equals(mode);
+	}
+
+	/**
+	 * Applies the choices in one pass. With {@link ConflictChoice#BOTH}, our
+	 * side is kept in a copy next to the file, which is not staged.
+	 *
+	 * @param choices by path; the paths not listed stay unmerged
+	 * @param copyName gives the path of the copy of a file
+	 */
+	void resolve(final Map<String, ConflictChoice> choices, final UnaryOperator<Path> copyName) throws IOException {
+		final DirCache index = repository.lockDirCache();
+		try (final var reader = repository.newObjectReader()) {
+			final var stages = getStages(index);
+			final var metadata = getCheckoutMetadata(index, choices.keySet().stream().filter(stages::containsKey).toList());
+			final var checkout = new Checkout(repository);
+			final var builder = index.builder();
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				final var entry = index.getEntry(i);
+				final var path = entry.getPathString();
+				final var choice = choices.get(path);
+				if (entry.getStage() == DirCacheEntry.STAGE_0 || choice == null) {
+					builder.add(entry);
+					continue;
+				}
+				if (i > 0 && path.equals(index.getEntry(i - 1).getPathString())) {
+					continue; // resolved with the first stage
+				}
+				final var ours = stages.get(path)[DirCacheEntry.STAGE_2];
+				final var theirs = stages.get(path)[DirCacheEntry.STAGE_3];
+				final var meta = metadata.getOrDefault(path, new CheckoutMetadata(EolStreamType.DIRECT, null));
+				if (choice == ConflictChoice.BOTH && ours != null) {
+					writeCopy(path, reader.open(ours.getObjectId(), Constants.OBJ_BLOB), meta, checkout, copyName.apply(workTree.resolve(path)));
+				}
+				final var chosen = choice == ConflictChoice.OURS ? ours : theirs;
+				if (chosen == null) {
+					Files.deleteIfExists(workTree.resolve(path)); // deleted on the chosen side
+					continue;
+				}
+				final var resolved = new DirCacheEntry(path, DirCacheEntry.STAGE_0);
+				resolved.setFileMode(chosen.getFileMode());
+				resolved.setObjectId(chosen.getObjectId());
+				if (FileMode.GITLINK.equals(chosen.getFileMode())) {
+					checkout.checkoutGitlink(resolved, null);
+				}
+				else {
+					checkout.checkout(resolved, meta, reader, null); // also sets the stat data
+				}
+				builder.add(resolved);
+			}
+			builder.finish();
+			index.write();
+			index.commit();
+		}
+		finally {
+			index.unlock();
+		}
+	}
+
+	/**
+	 * Outcome of {@link #resolvePending}.
+	 *
+	 * @param resolved the paths no longer pending
+	 * @param changed the work tree paths to stage, copies included
+	 * @param requeued the conflicts whose file changed since they were
+	 *        deferred, with THEIRS as it is now, to be asked again
+	 */
+	record Resolution(List<String> resolved, List<String> changed, List<Conflict> requeued) {}
+
+	/**
+	 * Applies the final choices to conflicts that were deferred, i.e. resolved
+	 * as THEIRS and committed. OURS is restored from the object database,
+	 * where it stays reachable from the first parent of the merge, and is then
+	 * committed like any local change. A path is only written if both its
+	 * work tree file and its index entry still hold THEIRS; otherwise it is
+	 * re-queued.
+	 *
+	 * @param choices by path; the paths not listed stay pending
+	 * @param copyName gives the path of the copy of a file
+	 */
+	Resolution resolvePending(final List<Conflict> conflicts, final Map<String, ConflictChoice> choices, final UnaryOperator<Path> copyName) throws IOException {
+		final List<String> resolved = new ArrayList<>();
+		final List<String> changed = new ArrayList<>();
+		final List<Conflict> requeued = new ArrayList<>();
+		final var chosen = conflicts.stream().filter(conflict -> choices.containsKey(conflict.path())).toList();
+		final var index = repository.readDirCache();
+		final var metadata = getCheckoutMetadata(withOurs(index, chosen), chosen.stream().filter(conflict -> conflict.ours() != null).map(Conflict::path).toList());
+		final var files = getWorkTreeSides(chosen.stream().map(Conflict::path).toList());
+		final var checkout = new Checkout(repository);
+		try (final var reader = repository.newObjectReader()) {
+			for (final var conflict : chosen) {
+				final var path = conflict.path();
+				final var choice = choices.get(path);
+				final var entry = index.getEntry(path);
+				final var staged = entry == null || entry.getStage() != DirCacheEntry.STAGE_0 ? null : toSide(entry, reader);
+				if (!isSame(conflict.theirs(), staged) || !isSame(staged, files.get(path))) {
+					requeued.add(new Conflict(path, conflict.ours(), staged, getLastModified(path)));
+					continue;
+				}
+				final var ours = conflict.ours();
+				final var meta = metadata.getOrDefault(path, new CheckoutMetadata(EolStreamType.DIRECT, null));
+				if (choice == ConflictChoice.BOTH && ours != null && !FileMode.GITLINK.equals(ours.mode())) {
+					final var copy = copyName.apply(workTree.resolve(path));
+					writeCopy(path, reader.open(ours.id(), Constants.OBJ_BLOB), meta, checkout, copy);
+					changed.add(toRepositoryPath(copy));
+				}
+				else if (choice == ConflictChoice.OURS) {
+					if (ours == null) {
+						Files.deleteIfExists(workTree.resolve(path));
+					}
+					else if (!FileMode.GITLINK.equals(ours.mode())) {
+						checkout.checkout(newEntry(path, ours), meta, reader, null); // not added to the index
+					}
+					changed.add(path);
+				}
+				resolved.add(path); // THEIRS is already there
+			}
+		}
+		return new Resolution(resolved, changed, requeued);
+	}
+
+	/** @return a copy of the index with OURS in place of the given paths, so that their attributes can be read */
+	private static DirCache withOurs(final DirCache index, final List<Conflict> conflicts) {
+		final Map<String, Conflict> replaced = new HashMap<>();
+		conflicts.forEach(conflict -> replaced.put(conflict.path(), conflict));
+		final var copy = DirCache.newInCore();
+		final var builder = copy.builder();
+		for (int i = 0; i < index.getEntryCount(); i++) {
+			final var entry = index.getEntry(i);
+			if (entry.getStage() == DirCacheEntry.STAGE_0 && !replaced.containsKey(entry.getPathString())) {
+				builder.add(entry);
+			}
+		}
+		for (final var conflict : conflicts) {
+			if (conflict.ours() != null) {
+				builder.add(newEntry(conflict.path(), conflict.ours()));
+			}
+		}
+		builder.finish(); // sorted
+		return copy;
+	}
+
+	private static boolean isSame(final Side expected, final Side actual) {
+		return expected == null ? actual == null : actual != null && expected.id().equals(actual.id());
+	}
+
+	/** Hashes the given work tree files as they would be staged, filters included. */
+	private Map<String, Side> getWorkTreeSides(final List<String> paths) throws IOException {
+		final Map<String, Side> sides = new HashMap<>();
+		if (paths.isEmpty()) {
+			return sides;
+		}
+		try (final var walk = new TreeWalk(repository)) {
+			walk.setOperationType(OperationType.CHECKIN_OP);
+			walk.addTree(new FileTreeIterator(repository));
+			walk.setFilter(PathFilterGroup.createFromStrings(paths));
+			walk.setRecursive(true);
+			while (walk.next()) {
+				final var file = walk.getTree(0, FileTreeIterator.class);
+				sides.put(walk.getPathString(), new Side(file.getEntryObjectId(), file.getEntryFileMode(), file.getEntryLength()));
+			}
+		}
+		return sides;
+	}
+
+	private Optional<Instant> getLastModified(final String path) throws IOException {
+		try {
+			return Optional.of(Files.getLastModifiedTime(workTree.resolve(path), LinkOption.NOFOLLOW_LINKS).toInstant());
+		}
+		catch (final NoSuchFileException e) {
+			return Optional.empty();
+		}
+	}
+
+	private static DirCacheEntry newEntry(final String path, final Side side) {
+		final var entry = new DirCacheEntry(path, DirCacheEntry.STAGE_0);
+		entry.setFileMode(side.mode());
+		entry.setObjectId(side.id());
+		return entry;
+	}
+
+	private String toRepositoryPath(final Path file) {
+		return workTree.relativize(file).toString().replace(File.separatorChar, '/');
+	}
+
+	private static Side toSide(final DirCacheEntry entry, final ObjectReader reader) throws IOException {
+		return entry == null ? null : new Side(entry.getObjectId(), entry.getFileMode(), reader.getObjectSize(entry.getObjectId(), Constants.OBJ_BLOB));
+	}
+
+	/**
+	 * Writes our side of a file to its conflicted copy, streaming it from the
+	 * object database rather than copying the work tree file. Content kept in
+	 * the large file store is copied from there with zero-copy transfers.
+	 */
+	private void writeCopy(final String path, final ObjectLoader blob, final CheckoutMetadata meta, final Checkout checkout, final Path copy) throws IOException {
+		if (LargeFileStore.SMUDGE_COMMAND.equals(meta.smudgeFilterCommand) && LargeFileStore.copyContent(repository, blob, copy)) {
+			return;
+		}
+		try (final var out = Files.newOutputStream(copy, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			DirCacheCheckout.getContent(repository, path, meta, blob, checkout.getWorkingTreeOptions(), out); // streamed, whatever the size
+		}
+	}
+
+	/** @return the stages of each unmerged path, indexed by stage number */
+	private static Map<String, DirCacheEntry[]> getStages(final DirCache index) {
+		final Map<String, DirCacheEntry[]> stages = new LinkedHashMap<>();
+		for (int i = 0; i < index.getEntryCount(); i++) {
+			final var entry = index.getEntry(i);
+			if (entry.getStage() != DirCacheEntry.STAGE_0) {
+				stages.computeIfAbsent(entry.getPathString(), path -> new DirCacheEntry[DirCacheEntry.STAGE_3 + 1])[entry.getStage()] = entry;
+			}
+		}
+		return stages;
+	}
+
+	/** Reads the EOL conversion and the smudge filter of each path from the attributes. */
+	private Map<String, CheckoutMetadata> getCheckoutMetadata(final DirCache index, final List<String> paths) throws IOException {
+		final Map<String, CheckoutMetadata> metadata = new HashMap<>();
+		if (paths.isEmpty()) {
+			return metadata;
+		}
+		try (final var walk = new TreeWalk(repository)) {
+			walk.setOperationType(OperationType.CHECKOUT_OP);
+			walk.addTree(new DirCacheIterator(index));
+			walk.setFilter(PathFilterGroup.createFromStrings(paths));
+			walk.setRecursive(true);
+			while (walk.next()) {
+				metadata.put(walk.getPathString(), new CheckoutMetadata(walk.getEolStreamType(OperationType.CHECKOUT_OP), walk.getFilterCommand(Constants.ATTR_FILTER_TYPE_SMUDGE)));
+			}
+		}
+		return metadata;
+	}
+
+}
@@ -0,0 +1,53 @@
+package io.github.albertus82.git.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rules that resolve conflicts without asking, so that unattended clients
+ * keep syncing. Each rule maps a pattern ({@code .gitignore} syntax, e.g.
+ * {@code *.log} for a file type or {@code /build/} for a directory) to a
+ * {@link ConflictChoice}; the first matching rule wins. They are written as
+ * a comma-separated list, e.g. {@code *.log=THEIRS, /notes/=BOTH, *=OURS}.
+ */
+@Slf4j
+class ConflictRules {
+
+	private record Rule(FastIgnoreRule matcher, ConflictChoice choice) {}
+
+	private final List<Rule> rules = new ArrayList<>();
+
+	ConflictRules(final String rules) {
+		for (final var rule : rules.split(",")) {
+			if (rule.isBlank()) {
+				continue;
+			}
+			final var separator = rule.lastIndexOf('=');
+			try {
+				if (separator <= 0) {
+					throw new IllegalArgumentException("missing resolution");
+				}
+				final var matcher = new FastIgnoreRule(rule.substring(0, separator).trim());
+				if (matcher.isEmpty() || matcher.getNegation()) {
+					throw new IllegalArgumentException("invalid pattern");
+				}
+				this.rules.add(new Rule(matcher, ConflictChoice.valueOf(rule.substring(separator + 1).trim().toUpperCase(Locale.ROOT))));
+			}
+			catch (final IllegalArgumentException e) {
+				log.warn("Ignoring conflict rule '{}': {}", rule.trim(), e.getMessage());
+			}
+		}
+	}
+
+	/** @return the resolution of the first matching rule, if any */
+	Optional<ConflictChoice> match(final String path) {
+		return rules.stream().filter(rule -> rule.matcher().isMatch(path, false)).map(Rule::choice).findFirst();
+	}
+
+}
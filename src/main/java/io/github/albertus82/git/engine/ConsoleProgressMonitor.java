@@ -0,0 +1,75 @@
+package io.github.albertus82.git.engine;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.eclipse.jgit.lib.BatchingProgressMonitor;
+
+/**
+ * Reports the progress of long running JGit operations as console messages,
+ * at most once every {@link #LOG_INTERVAL} per task, so that the console is
+ * not flooded.
+ */
+class ConsoleProgressMonitor extends BatchingProgressMonitor {
+
+	static final Duration LOG_INTERVAL = Duration.ofSeconds(2);
+
+	private final Consumer<String> out;
+	private final BooleanSupplier cancelled;
+
+	private String lastTask;
+	private Duration lastLogged = Duration.ZERO;
+
+	/**
+	 * @param out receives the progress messages
+	 * @param cancelled tells whether the operation has to be cancelled
+	 */
+	ConsoleProgressMonitor(final Consumer<String> out, final BooleanSupplier cancelled) {
+		this.out = out;
+		this.cancelled = cancelled;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled.getAsBoolean();
+	}
+
+	@Override
+	protected void onUpdate(final String taskName, final int workCurr, final Duration duration) {
+		if (isDue(taskName, duration)) {
+			out.accept(taskName + ": " + workCurr);
+		}
+	}
+
+	@Override
+	protected void onEndTask(final String taskName, final int workCurr, final Duration duration) {
+		out.accept(taskName + ": " + workCurr + ", done.");
+	}
+
+	@Override
+	protected void onUpdate(final String taskName, final int workCurr, final int workTotal, final int percentDone, final Duration duration) {
+		if (isDue(taskName, duration)) {
+			out.accept(taskName + ": " + percentDone + "% (" + workCurr + '/' + workTotal + ')');
+		}
+	}
+
+	@Override
+	protected void onEndTask(final String taskName, final int workCurr, final int workTotal, final int percentDone, final Duration duration) {
+		out.accept(taskName + ": " + percentDone + "% (" + workCurr + '/' + workTotal + "), done.");
+	}
+
+	private boolean isDue(final String taskName, final Duration duration) {
+		if (!taskName.equals(lastTask)) {
+			lastTask = taskName;
+			lastLogged = duration;
+			return true;
+		}
+		if (duration.minus(lastLogged).compareTo(LOG_INTERVAL) >= 0) {
+			lastLogged = duration;
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,69 @@
+package io.github.albertus82.git.engine;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces bursts of signals into a single execution of an action. The
+ * action runs once no further signal has been received for the quiet period,
+ * or at the latest when the maximum delay since the first signal of the burst
+ * has elapsed.
+ */
+class Debouncer {
+
+	private final ScheduledExecutorService scheduler;
+	private final Runnable action;
+	private final Supplier<Duration> quietPeriod;
+	private final Supplier<Duration> maxDelay;
+
+	private ScheduledFuture<?> pending;
+	private long burstStart;
+	private long generation;
+
+	Debouncer(final ScheduledExecutorService scheduler, final Runnable action, final Supplier<Duration> quietPeriod, final Supplier<Duration> maxDelay) {
+		this.scheduler = scheduler;
+		this.action = action;
+		this.quietPeriod = quietPeriod;
+		this.maxDelay = maxDelay;
+	}
+
+	synchronized void signal() {
+		final var now = System.nanoTime();
+		if (pending == null) {
+			burstStart = now;
+		}
+		else {
+			pending.cancel(false);
+		}
+		final var deadline = burstStart + maxDelay.get().toNanos();
+		final var delay = Math.max(0, Math.min(quietPeriod.get().toNanos(), deadline - now));
+		final var current = ++generation;
+		pending = scheduler.schedule(() -> fire(current), delay, TimeUnit.NANOSECONDS);
+	}
+
+	synchronized boolean isPending() {
+		return pending != null;
+	}
+
+	synchronized void cancel() {
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		generation++;
+	}
+
+	private void fire(final long scheduledGeneration) {
+		synchronized (this) {
+			if (scheduledGeneration != generation) {
+				return; // superseded by a later signal
+			}
+			pending = null;
+		}
+		action.run();
+	}
+
+}
@@ -0,0 +1,64 @@
+package io.github.albertus82.git.engine;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Keeps track of the work tree paths that changed since the last sync cycle,
+ * so that staging and status can be limited to them. The journal starts out
+ * invalid and becomes invalid again when it overflows or when events may have
+ * been lost; in that case the next cycle has to walk the whole work tree.
+ */
+class DirtyPathJournal {
+
+	private final int capacity;
+
+	private Set<String> paths = new HashSet<>();
+	private boolean valid;
+
+	DirtyPathJournal(final int capacity) {
+		this.capacity = capacity;
+	}
+
+	/** @param path the changed path, relative to the work tree */
+	synchronized void add(final Path path) {
+		if (!valid) {
+			return; // a full walk is pending anyway
+		}
+		if (paths.size() >= capacity) {
+			invalidate();
+			return;
+		}
+		paths.add(toRepositoryPath(path));
+	}
+
+	synchronized void invalidate() {
+		valid = false;
+		paths.clear();
+	}
+
+	/**
+	 * Returns the journaled paths and starts a new journal.
+	 *
+	 * @return the paths changed since the last call, or an empty
+	 *         {@code Optional} if the whole work tree has to be walked
+	 */
+	synchronized Optional<Set<String>> drain() {
+		if (!valid) {
+			valid = true;
+			return Optional.empty();
+		}
+		final var drained = paths;
+		paths = new HashSet<>();
+		return Optional.of(drained);
+	}
+
+	private static String toRepositoryPath(final Path path) {
+		return StreamSupport.stream(path.spliterator(), false).map(Path::toString).collect(Collectors.joining("/"));
+	}
+
+}
@@ -1,58 +1,83 @@
 package io.github.albertus82.git.engine;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jgit.api.CheckoutCommand.Stage;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.MergeResult.MergeStatus;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.lib.RepositoryState;
-import org.eclipse.jgit.merge.MergeStrategy;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.HttpTransport;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
 import org.eclipse.swt.widgets.Shell;
 
 import io.github.albertus82.git.config.ApplicationConfig;
+import io.github.albertus82.git.gui.preference.Preference;
 import io.github.albertus82.jface.preference.IPreferencesConfiguration;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
 
 public class GitSyncService implements Closeable {
 
+	@NoArgsConstructor(access = AccessLevel.PRIVATE)
+	public static class Defaults {
+		public static final int SYNC_QUIET_PERIOD = 3;
+		public static final int SYNC_MAX_DELAY = 60;
+		public static final int SYNC_PULL_INTERVAL_MIN = 30;
+		public static final int SYNC_PULL_INTERVAL_MAX = 600;
+		public static final int SYNC_PUSH_WINDOW = 10;
+		public static final String SYNC_INTEGRATION = IntegrationMode.REBASE.name();
+		public static final int SYNC_CLONE_DEPTH = 0;
+		public static final int SYNC_CLONE_SINCE_DAYS = 0;
+		public static final int SYNC_LARGE_FILE_THRESHOLD = 0; // MiB
+		public static final int SYNC_EXCLUDE_MAX_FILE_SIZE = 0; // MiB
+		public static final int ENGINE_PACKED_GIT_WINDOW_SIZE = 8; // KiB
+		public static final int ENGINE_PACKED_GIT_LIMIT = 10; // MiB
+		public static final boolean ENGINE_PACKED_GIT_MMAP = false;
+		public static final int ENGINE_DELTA_BASE_CACHE_LIMIT = 10; // MiB
+		public static final int ENGINE_STREAM_FILE_THRESHOLD = 50; // MiB
+		public static final int ENGINE_WORKER_THREADS = 4;
+		public static final boolean ENGINE_VIRTUAL_THREADS = false;
+		public static final boolean ENGINE_HTTP_CLIENT = true;
+	}
+
 	// GUI
-	// - if dir exists and is not empty, ask for another directory.
-	// - if dir not exists, mkdir.
-	// - if dir exists and is empty, mkdir and ask for remote URL, username and password, and clone.
 	// - check if .gitattributes exists, if not, ask permission to create it as "* binary"
 
 	private static final String gitattributes = "* binary"; // Needed to make conflicted copy work correctly
 
 	private static final DateTimeFormatter logTimestampFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+	private static final Duration statisticsInterval = Duration.ofMinutes(30);
+	private static final Duration stopTimeout = Duration.ofSeconds(10);
+
 	public static void main(final String... args) throws IOException {
 		//		final var repoPath = Path.of(args[0].trim());
 		//		final var username = args[1].trim();
@@ -68,156 +93,165 @@ public class GitSyncService implements Closeable {
 
 	//	private final Path repoPath;
 	//	private final CredentialsProvider credentials;
-	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-	private final AtomicReference<SyncState> state = new AtomicReference<>(SyncState.IDLE);
-	private final AtomicBoolean syncInProgress = new AtomicBoolean(false);
-	private final AtomicLong lastPull = new AtomicLong(0);
-	private final AtomicBoolean pushRequired = new AtomicBoolean(false);
-
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(); // timers only, never blocks
+	private final ExecutorService workers = newWorkers();
+	private final AtomicLong lastWindowCacheRequests = new AtomicLong(0);
+	private final AtomicLong lastHttpRequests = new AtomicLong(0);
+	private final List<RepositorySync> repositories = new ArrayList<>();
+	private final SshSessions sshSessions = new SshSessions(getSshKey());
+	private final HttpClientConnectionFactory httpConnections = new HttpClientConnectionFactory();
+	private final Optional<Shell> shell;
+
+	/** Runs without user interface: the conflicts that need the user are only logged. */
 	public GitSyncService(/* final Path repoPath, final String username, final String password */) throws IOException {
 		//		this.repoPath = repoPath.toRealPath();
 		//		this.credentials = new UsernamePasswordCredentialsProvider(username, password);
+		this.shell = Optional.empty();
+	}
+
+	/** @param shell the parent of the dialogs that ask the user, e.g. to resolve conflicts */
+	public GitSyncService(final Shell shell) throws IOException {
+		this.shell = Optional.of(shell);
 	}
 
 	public void start() throws IOException {
-		log("Using local path '" + getRepoPath().orElseThrow() + "'.");
-		scheduler.scheduleWithFixedDelay(() -> {
+		final var repoPaths = getConfiguredRepoPaths();
+		if (repoPaths.isEmpty()) {
+			throw new NoSuchElementException("No repository configured");
+		}
+		installWindowCacheConfig();
+		installHttpConnectionFactory();
+		scheduler.scheduleWithFixedDelay(this::logStatistics, statisticsInterval.toMillis(), statisticsInterval.toMillis(), TimeUnit.MILLISECONDS);
+		IOException failure = null;
+		int started = 0;
+		for (final var repoPath : repoPaths) {
+			final var logPrefix = repoPaths.size() > 1 ? "[" + Path.of(repoPath).getFileName() + "] " : "";
+			final var remoteUrl = repoPath.equals(getConfiguredRepoPath().orElse(null)) ? getRemoteUrl() : Optional.<String> empty(); // only the primary repository can be cloned
+			final var repository = new RepositorySync(this, repoPath, remoteUrl, logPrefix, scheduler, workers);
 			try {
-				syncGuarded();
+				repository.start();
 			}
-			catch (final IOException e) {
-				throw new UncheckedIOException(e);
+			catch (final IOException e) { // the others are started anyway
+				log(logPrefix + "Cannot start syncing '" + repoPath + "': " + e);
+				repository.stop();
+				repository.close();
+				if (failure == null) {
+					failure = e;
+				}
+				continue;
 			}
-		}, 0, 5, TimeUnit.SECONDS);
+			synchronized (repositories) {
+				repositories.add(repository);
+			}
+			started++;
+		}
+		if (started == 0) { // nothing to sync
+			throw failure;
+		}
 	}
 
 	public void stop() {
+		final List<RepositorySync> stopping;
+		synchronized (repositories) {
+			stopping = new ArrayList<>(repositories);
+			repositories.clear();
+		}
+		flush(stopping);
+		stopping.forEach(RepositorySync::stop);
 		scheduler.shutdownNow();
-	}
-
-	@Override
-	public void close() {
-		stop();
-	}
-
-	private void syncGuarded() throws IOException {
-		var current = state.get();
-
-		if (getCredentialsProvider().isEmpty() || getRepoPath().isEmpty() || getClientId().isEmpty()) {
-			System.out.println("Please check configuration!");
-			return;
+		workers.shutdownNow(); // interrupts the running cycles
+		try {
+			if (!workers.awaitTermination(stopTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+				log("Some sync operations did not stop within " + stopTimeout.toSeconds() + " seconds.");
+			}
 		}
-
-		if (current == SyncState.WAITING_FOR_USER) {
-			return; // intentional pause
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		stopping.forEach(RepositorySync::close); // not before the cycles have stopped
+		sshSessions.close();
+		httpConnections.close();
+		logStatistics();
+	}
 
-		if (!syncInProgress.compareAndSet(false, true)) {
-			return;
-		}
-		try {
-			syncSafely();
-		}
-		finally {
-			syncInProgress.set(false);
+	/** Requests an immediate sync cycle for every repository, pushing the pending commits. */
+	public void syncNow() {
+		synchronized (repositories) {
+			repositories.forEach(RepositorySync::syncNow);
 		}
 	}
 
-	private void syncSafely() {
-		state.set(SyncState.SYNCING);
+	/** Publishes the commits still waiting for their push window. */
+	private void flush(final Collection<RepositorySync> stopping) {
 		try {
-			sync();
+			CompletableFuture.allOf(stopping.stream().map(repository -> CompletableFuture.runAsync(repository::flush, workers)).toArray(CompletableFuture[]::new)).get(stopTimeout.toMillis(), TimeUnit.MILLISECONDS);
 		}
-		catch (final UserInteractionRequired e) {
-			// ok
+		catch (final ExecutionException | TimeoutException | RejectedExecutionException e) {
+			log("Cannot push pending commits: " + e);
 		}
-		catch (final Exception e) {
-			stop();
-		}
-		finally {
-			if (state.get() == SyncState.SYNCING) {
-				state.set(SyncState.IDLE);
-			}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
-	private void sync() throws Exception {
-		try (final var git = openGit()) {
-			final var repo = git.getRepository();
-
-			final boolean merged = recoverIfMerging(git, repo);
-			final boolean committed = commitLocalChanges(git);
-
-			if (committed || Instant.ofEpochMilli(lastPull.get()).isBefore(Instant.now().minus(Duration.of(60, ChronoUnit.SECONDS)))) {
-				lastPull.set(Instant.now().toEpochMilli());
-				pullRemoteChanges(git);
-			}
-			if (merged || committed || pushRequired.getAndSet(false)) {
-				pushChanges(git);
-			}
+	/**
+	 * Creates the executor for the sync cycles: either a bounded pool of
+	 * platform threads, or one virtual thread per cycle, which lets many
+	 * repositories wait on the network at the same time for almost no cost.
+	 */
+	private ExecutorService newWorkers() {
+		if (configuration.getBoolean(Preference.ENGINE_VIRTUAL_THREADS, Defaults.ENGINE_VIRTUAL_THREADS)) {
+			return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("GitSyncWorker-", 0).factory());
 		}
+		return Executors.newFixedThreadPool(Math.max(1, configuration.getInt(Preference.ENGINE_WORKER_THREADS, Defaults.ENGINE_WORKER_THREADS)));
 	}
 
-	private Git openGit() throws IOException {
-		final var repo = new FileRepositoryBuilder().setGitDir(getRepoPath().orElseThrow().resolve(".git").toFile()).readEnvironment().findGitDir().build();
-		return new Git(repo);
-	}
-
-	private boolean recoverIfMerging(final Git git, final Repository repo) throws Exception {
-		if (repo.getRepositoryState() != RepositoryState.MERGING) {
-			return false;
+	private void installWindowCacheConfig() {
+		final var config = new WindowCacheConfig();
+		config.setPackedGitWindowSize(Integer.highestOneBit(Math.max(4, configuration.getInt(Preference.ENGINE_PACKED_GIT_WINDOW_SIZE, Defaults.ENGINE_PACKED_GIT_WINDOW_SIZE))) * WindowCacheConfig.KB); // must be a power of 2
+		config.setPackedGitLimit((long) configuration.getInt(Preference.ENGINE_PACKED_GIT_LIMIT, Defaults.ENGINE_PACKED_GIT_LIMIT) * WindowCacheConfig.MB);
+		config.setPackedGitMMAP(configuration.getBoolean(Preference.ENGINE_PACKED_GIT_MMAP, Defaults.ENGINE_PACKED_GIT_MMAP));
+		config.setDeltaBaseCacheLimit(configuration.getInt(Preference.ENGINE_DELTA_BASE_CACHE_LIMIT, Defaults.ENGINE_DELTA_BASE_CACHE_LIMIT) * WindowCacheConfig.MB);
+		config.setStreamFileThreshold((int) Math.min((long) configuration.getInt(Preference.ENGINE_STREAM_FILE_THRESHOLD, Defaults.ENGINE_STREAM_FILE_THRESHOLD) * WindowCacheConfig.MB, Runtime.getRuntime().maxMemory() / 4)); // larger objects are streamed instead of being loaded in memory
+		try {
+			config.install();
+			log("Pack cache: " + config.getPackedGitWindowSize() / WindowCacheConfig.KB + " KiB windows, " + config.getPackedGitLimit() / WindowCacheConfig.MB + " MiB limit" + (config.isPackedGitMMAP() ? " (mmap)" : "") + ", " + config.getDeltaBaseCacheLimit() / WindowCacheConfig.MB + " MiB delta base cache, " + config.getStreamFileThreshold() / WindowCacheConfig.MB + " MiB streaming threshold.");
 		}
+		catch (final IllegalArgumentException e) {
+			log("Invalid pack cache settings, using defaults: " + e.getMessage());
+		}
+	}
 
-		log("Interrupted merge detected");
-
-		resolveConflictsIfAny(git);
-
-		git.commit().setMessage(buildMessage()).call();
-		log("Merged.");
-		return true;
+	/**
+	 * Installs the HTTP transport, which is global to JGit: either the pooled
+	 * one, or JGit's default built on {@link java.net.HttpURLConnection}.
+	 */
+	private void installHttpConnectionFactory() {
+		HttpTransport.setConnectionFactory(configuration.getBoolean(Preference.ENGINE_HTTP_CLIENT, Defaults.ENGINE_HTTP_CLIENT) ? httpConnections : new JDKHttpConnectionFactory());
 	}
 
-	private boolean commitLocalChanges(final Git git) throws GitAPIException {
-		stageAll(git);
+	private void logStatistics() {
+		logWindowCacheStats();
+		logHttpStats();
+	}
 
-		final var status = git.status().call();
-		log("Status...");
-		if (status.isClean()) {
-			log("Clean.");
-			return false;
+	private void logWindowCacheStats() {
+		final var stats = WindowCacheStats.getStats();
+		if (lastWindowCacheRequests.getAndSet(stats.getRequestCount()) != stats.getRequestCount()) {
+			log(String.format("Pack cache: %.1f%% hit rate (%d requests, %d evictions, %d open files, %d KiB open).", stats.getHitRatio() * 100, stats.getRequestCount(), stats.getEvictionCount(), stats.getOpenFileCount(), stats.getOpenByteCount() / WindowCacheConfig.KB));
 		}
-
-		status.getAdded().forEach(e -> log("Added '" + e + "'."));
-		status.getChanged().forEach(e -> log("Changed '" + e + "'."));
-		status.getConflicting().forEach(e -> log("Conflicting '" + e + "'."));
-		status.getMissing().forEach(e -> log("Missing '" + e + "'."));
-		status.getModified().forEach(e -> log("Modified '" + e + "'."));
-		status.getRemoved().forEach(e -> log("Removed '" + e + "'."));
-		status.getUntracked().forEach(e -> log("Untracked '" + e + "'."));
-
-		git.commit().setMessage(buildMessage()).call();
-		log("Committed.");
-		return true;
 	}
 
-	private void stageAll(final Git git) throws GitAPIException {
-		// Equivalent to: git add -A
-		git.add().addFilepattern(".").call();
-		git.add().setUpdate(true).call();
+	private void logHttpStats() {
+		final var stats = httpConnections.getStats();
+		if (lastHttpRequests.getAndSet(stats.requests()) != stats.requests()) {
+			log("HTTP: " + stats.requests() + " requests over " + stats.tlsConnections() + " TLS connections.");
+		}
 	}
 
-	private void pullRemoteChanges(final Git git) throws Exception {
-		final var result = git.pull().setCredentialsProvider(getCredentialsProvider().orElseThrow()).setStrategy(MergeStrategy.RECURSIVE).call();
-		log("Pulled.");
-
-		final var merge = result.getMergeResult();
-		if (merge != null && merge.getMergeStatus() == MergeStatus.CONFLICTING) {
-
-			resolveConflictsIfAny(git);
-
-			git.commit().setMessage(buildMessage()).call();
-			log("Merged.");
-		}
+	@Override
+	public void close() {
+		stop();
 	}
 
 	public static int openConflictDialog(final Shell parentShell) {
@@ -233,154 +267,74 @@ public class GitSyncService implements Closeable {
 
 	}
 
-	private void resolveConflictsIfAny(final Git git) throws Exception {
-		final var conflicts = git.status().call().getConflicting();
-		if (conflicts.isEmpty()) {
-			return;
-		}
-
-		state.set(SyncState.WAITING_FOR_USER);
-
-		final var iterator = conflicts.iterator();
-		startConflictResolutionSession(git, iterator);
-
-		throw new UserInteractionRequired();
+	String buildMessage() {
+		return getClientId().orElseThrow() + ' ' + OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS);
 	}
 
-	private void startConflictResolutionSession(final Git git, final Iterator<String> conflicts) {
-		Display.getDefault().asyncExec(() -> runConflictStep(git, conflicts));
+	static void log(final Object message) {
+		System.out.println(logTimestampFormat.format(LocalDateTime.now()) + ' ' + String.valueOf(message));
 	}
 
-	private void runConflictStep(final Git git, final Iterator<String> conflicts) {
-		if (!conflicts.hasNext()) {
-			completeConflictResolution(git);
-			return;
-		}
-
-		final var path = conflicts.next();
-		// Shell shell = getActiveShell();
-		final var display = Display.getCurrent();
-		if (display == null) {
-			return;
-		}
-		final var shell = display.getShells().length > 0 ? display.getShells()[0] : null;
-		if (shell == null) {
-			return;
-		}
-
-		final var choice = ConflictResolutionDialog.ask(shell, path);
-
-		try {
-			applyConflictChoice(git, path, choice);
-		}
-		catch (final Exception e) {
-			onSyncFailure(e);
-			return;
-		}
-
-		// Schedule next step explicitly
-		Display.getDefault().asyncExec(() -> runConflictStep(git, conflicts));
+	/** @return the shell to ask the user with, if any and not disposed yet */
+	Optional<Shell> getShell() {
+		return shell.filter(current -> !current.isDisposed());
 	}
 
-	private void completeConflictResolution(final Git git) {
-		try {
-			stageAll(git);
-			git.commit().setMessage(buildMessage()).call();
-			log("Merged");
-			pushRequired.set(true);
-		}
-		catch (final Exception e) {
-			onSyncFailure(e);
-			return;
+	Optional<String> getClientId() {
+		final var clientId = configuration.getString("client.id", "");
+		if (clientId.isBlank()) {
+			return Optional.empty();
 		}
-
-		state.set(SyncState.IDLE);
-		scheduler.execute(() -> {
-			try {
-				syncGuarded();
-			}
-			catch (final IOException e) {
-				throw new UncheckedIOException(e);
-			}
-		});
+		return Optional.of(clientId);
 	}
 
-	private void applyConflictChoice(final Git git, final String path, final ConflictChoice choice) throws Exception {
-		switch (choice) {
-		case OURS -> checkoutStage(git, path, Stage.OURS);
-		case THEIRS -> checkoutStage(git, path, Stage.THEIRS);
-		case BOTH -> {
-			createConflictingCopy(git, path);
-			checkoutStage(git, path, Stage.THEIRS);
-		}
+	private Optional<String> getConfiguredRepoPath() {
+		final var repoPath = configuration.getString("repo.path", "");
+		if (repoPath.isBlank()) {
+			return Optional.empty();
 		}
+		return Optional.of(repoPath);
 	}
 
-	private void checkoutStage(final Git git, final String path, final Stage stage) throws GitAPIException {
-		git.checkout().addPath(path).setStage(stage).call();
-	}
-
-	private void createConflictingCopy(final Git git, final String path) throws Exception {
-		final var workTree = git.getRepository().getWorkTree().toPath();
-		final var original = workTree.resolve(path);
-
-		final var lastModifiedTime = Files.readAttributes(original, BasicFileAttributes.class).lastModifiedTime();
-		final var timestamp = (lastModifiedTime == null ? OffsetDateTime.now() : OffsetDateTime.ofInstant(lastModifiedTime.toInstant(), ZoneId.systemDefault())).toString().replace('.', '-').replace(':', '-').replace('\\', '-').replace('/', '-');
-
-		String fileNameWithoutExtension;
-		String extension;
-		final var originalFileName = original.getFileName().toString();
-		final var lastDotIndex = originalFileName.lastIndexOf('.');
-		if (lastDotIndex != -1 && lastDotIndex != originalFileName.length() - 1) {
-			fileNameWithoutExtension = originalFileName.substring(0, lastDotIndex);
-			extension = originalFileName.substring(lastDotIndex);
-		}
-		else {
-			fileNameWithoutExtension = originalFileName;
-			extension = "";
+	private Optional<String> getRemoteUrl() {
+		final var remoteUrl = configuration.getString(Preference.REPO_URL, "");
+		if (remoteUrl.isBlank()) {
+			return Optional.empty();
 		}
-		final var copy = original.resolveSibling(fileNameWithoutExtension + " (conflicted copy of " + getClientId().orElseThrow() + " on " + timestamp + ')' + extension);
-		Files.copy(original, copy);
-	}
-
-	private void onSyncFailure(final Exception e) {
-		e.printStackTrace();
-	}
-
-	private void pushChanges(final Git git) throws GitAPIException {
-		git.push().setCredentialsProvider(getCredentialsProvider().orElseThrow()).call();
-		log("Pushed.");
-	}
-
-	private String buildMessage() {
-		return getClientId().orElseThrow() + ' ' + OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+		return Optional.of(remoteUrl.trim());
 	}
 
-	private static void log(final Object message) {
-		System.out.println(logTimestampFormat.format(LocalDateTime.now()) + ' ' + String.valueOf(message));
-	}
-
-	private Optional<String> getClientId() {
-		final var clientId = configuration.getString("client.id", "");
-		if (clientId.isBlank()) {
+	private Optional<Path> getSshKey() {
+		final var sshKey = configuration.getString(Preference.REPO_SSH_KEY, "");
+		if (sshKey.isBlank()) {
 			return Optional.empty();
 		}
-		return Optional.of(clientId);
+		return Optional.of(Path.of(sshKey.trim()));
 	}
 
-	private Optional<Path> getRepoPath() throws IOException {
-		final var repoPath = configuration.getString("repo.path", "");
-		if (repoPath.isBlank()) {
-			return Optional.empty();
+	/** @return the primary repository followed by the additional ones, without duplicates */
+	private List<String> getConfiguredRepoPaths() {
+		final Set<String> repoPaths = new LinkedHashSet<>();
+		getConfiguredRepoPath().ifPresent(repoPaths::add);
+		for (final var repoPath : configuration.getString(Preference.REPO_PATHS, "").split(File.pathSeparator)) {
+			if (!repoPath.isBlank()) {
+				repoPaths.add(repoPath.trim());
+			}
 		}
-		return Optional.of(Path.of(repoPath).toRealPath());
+		return new ArrayList<>(repoPaths);
 	}
 
-	private Optional<CredentialsProvider> getCredentialsProvider() {
+	/** @return the transport setup shared by all the remote operations */
+	TransportConfigCallback getTransportConfigCallback() {
+		return sshSessions;
+	}
+
+	/** @return a new provider of the configured credentials, if any; meant to be reused by each repository */
+	Optional<CredentialsProvider> getCredentialsProvider() {
 		final var username = configuration.getString("repo.username", "");
 		final var password = configuration.getString("repo.password", "");
 		if (username.isBlank() || password.isBlank()) {
-			Optional.empty();
+			return Optional.empty();
 		}
 		return Optional.of(new UsernamePasswordCredentialsProvider(username, password));
 	}
@@ -0,0 +1,336 @@
+package io.github.albertus82.git.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+/**
+ * A JGit HTTP connection on top of a shared {@link HttpClient}. It is a
+ * single request/response exchange, like {@link java.net.HttpURLConnection}:
+ * the request is sent when the response is first asked for, and the body
+ * written to {@link #getOutputStream()} is buffered until then, in memory
+ * and then in a temporary file. The underlying connection goes back to the
+ * client pool as soon as the response body has been read and closed; the
+ * body of any other than a successful response is read right away, since
+ * JGit may only look at its status and headers (e.g. an authentication
+ * challenge or a redirect).
+ * <p>
+ * Redirects are never followed here, since JGit handles them itself. A
+ * custom TLS setup or host name verifier selects the factory's client for
+ * that setup when the request is sent.
+ */
+class HttpClientConnection implements HttpConnection {
+
+	private static final int IN_CORE_LIMIT = 1024 * 1024;
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/** Headers set by the client itself, that cannot be set on a request. */
+	private static final Set<String> restrictedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		restrictedHeaders.addAll(List.of("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+	}
+
+	private final HttpClientConnectionFactory factory;
+	private final Proxy proxy;
+	private final URL url;
+	private final Map<String, String> requestProperties = new LinkedHashMap<>();
+
+	private KeyManager[] keyManagers;
+	private TrustManager[] trustManagers;
+	private SecureRandom random;
+	private HostnameVerifier hostnameVerifier;
+	private String method = "GET";
+	private Duration timeout;
+	private boolean doOutput;
+	private TemporaryBuffer body;
+	private HttpResponse<InputStream> response;
+	private InputStream responseBody;
+
+	HttpClientConnection(final HttpClientConnectionFactory factory, final Proxy proxy, final URL url) {
+		this.factory = factory;
+		this.proxy = proxy;
+		this.url = url;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		return getResponse().statusCode();
+	}
+
+	@Override
+	public URL getURL() {
+		return url;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		getResponse();
+		return ""; // not available with HTTP/2, thus not exposed by HttpClient
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		return response == null ? Map.of() : response.headers().map(); // case insensitive
+	}
+
+	@Override
+	public void setRequestProperty(final String key, final String value) {
+		requestProperties.put(key, value);
+	}
+
+	@Override
+	public void setRequestMethod(final String method) throws ProtocolException {
+		if (response != null) {
+			throw new ProtocolException("Already connected");
+		}
+		this.method = method;
+	}
+
+	@Override
+	public void setUseCaches(final boolean usecaches) {
+		// HttpClient has no cache
+	}
+
+	@Override
+	public void setConnectTimeout(final int timeout) {
+		setReadTimeout(timeout); // the connect timeout is set on the client
+	}
+
+	@Override
+	public void setReadTimeout(final int timeout) {
+		this.timeout = timeout > 0 ? Duration.ofMillis(timeout) : null;
+	}
+
+	@Override
+	public String getContentType() {
+		return getHeaderField("Content-Type");
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		final var current = getResponse();
+		final var status = current.statusCode();
+		if (status >= 400) { // same as HttpURLConnection
+			final var message = "Server returned HTTP response code " + status + " for URL: " + url;
+			throw status == 404 || status == 410 ? new FileNotFoundException(message) : new IOException(message);
+		}
+		return new FilterInputStream(responseBody) {
+			@Override
+			public void close() throws IOException {
+				try {
+					drain(in);
+				}
+				finally {
+					in.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads what is left of a short response, so that the connection goes back
+	 * to the pool: closing an unfinished body would close the connection.
+	 */
+	private static void drain(final InputStream in) {
+		try {
+			final var buffer = new byte[8192];
+			for (int total = 0, n; total < MAX_DRAIN && (n = in.read(buffer)) != -1; total += n) {
+				// discard
+			}
+		}
+		catch (final IOException e) {
+			// the connection will not be reused
+		}
+	}
+
+	@Override
+	public String getHeaderField(final String name) {
+		return response == null ? null : response.headers().firstValue(name).orElse(null);
+	}
+
+	@Override
+	public List<String> getHeaderFields(final String name) {
+		return response == null ? List.of() : response.headers().allValues(name);
+	}
+
+	@Override
+	public int getContentLength() {
+		return response == null ? -1 : (int) response.headers().firstValueAsLong("Content-Length").orElse(-1);
+	}
+
+	@Override
+	public void setInstanceFollowRedirects(final boolean followRedirects) {
+		// never followed, JGit handles redirects itself
+	}
+
+	@Override
+	public void setDoOutput(final boolean dooutput) {
+		this.doOutput = dooutput;
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final int contentLength) {
+		// the body is buffered anyway
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (response != null) {
+			throw new ProtocolException("Already connected");
+		}
+		if (body == null) {
+			if ("GET".equals(method)) {
+				method = "POST"; // same as HttpURLConnection
+			}
+			doOutput = true;
+			body = new TemporaryBuffer.LocalFile(null, IN_CORE_LIMIT);
+		}
+		return body;
+	}
+
+	@Override
+	public void setChunkedStreamingMode(final int chunklen) {
+		// the body is buffered anyway
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return method;
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return proxy.type() == Proxy.Type.HTTP; // SOCKS is not supported by HttpClient
+	}
+
+	@Override
+	public void connect() throws IOException {
+		// connections are opened by the client pool when the request is sent
+	}
+
+	@Override
+	public void configure(final KeyManager[] km, final TrustManager[] tm, final SecureRandom random) {
+		this.keyManagers = km; // e.g. http.sslVerify = false
+		this.trustManagers = tm;
+		this.random = random;
+	}
+
+	@Override
+	public void setHostnameVerifier(final HostnameVerifier hostnameVerifier) {
+		this.hostnameVerifier = hostnameVerifier;
+	}
+
+	private HttpClient getClient() throws IOException {
+		if (keyManagers == null && trustManagers == null && hostnameVerifier == null) {
+			return factory.getClient(proxy);
+		}
+		try {
+			return factory.getClient(proxy, keyManagers, trustManagers, random, hostnameVerifier);
+		}
+		catch (final GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private HttpResponse<InputStream> getResponse() throws IOException {
+		if (response == null) {
+			response = send();
+			final var status = response.statusCode();
+			responseBody = status >= 200 && status < 300 ? response.body() : buffer(response.body());
+		}
+		return response;
+	}
+
+	/**
+	 * Reads a short response body at once and releases the connection, which
+	 * goes back to the pool unless the body is longer than {@link #MAX_DRAIN}.
+	 */
+	private static InputStream buffer(final InputStream in) {
+		try (in) {
+			return new ByteArrayInputStream(in.readNBytes(MAX_DRAIN));
+		}
+		catch (final IOException e) {
+			return InputStream.nullInputStream(); // the connection will not be reused
+		}
+	}
+
+	private HttpResponse<InputStream> send() throws IOException {
+		final HttpRequest.Builder request;
+		try {
+			request = HttpRequest.newBuilder(url.toURI());
+		}
+		catch (final URISyntaxException e) {
+			throw new IOException(e);
+		}
+		if ("http".equalsIgnoreCase(url.getProtocol())) {
+			request.version(HttpClient.Version.HTTP_1_1); // no h2c upgrade attempts
+		}
+		if (timeout != null) {
+			request.timeout(timeout);
+		}
+		requestProperties.forEach((key, value) -> {
+			if (!restrictedHeaders.contains(key)) {
+				request.header(key, value);
+			}
+		});
+		if (doOutput && body != null) {
+			body.close();
+			final var buffer = body;
+			request.method(method, BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(() -> {
+				try {
+					return buffer.openInputStream();
+				}
+				catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}), buffer.length()));
+		}
+		else {
+			request.method(method, BodyPublishers.noBody());
+		}
+
+		try {
+			return factory.send(getClient(), request.build());
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+		finally {
+			if (body != null) {
+				body.destroy();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package io.github.albertus82.git.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+
+/**
+ * Creates JGit HTTP connections backed by {@link HttpClient}, which keeps a
+ * pool of open connections (a single multiplexed one with HTTP/2), so that
+ * the TCP and TLS handshakes are not repeated by every request of a fetch or
+ * a push, nor by every sync cycle. One client is kept per proxy, and one per
+ * proxy and TLS setup for the connections that JGit configures itself, e.g.
+ * to skip the certificate and host name checks with {@code http.sslVerify =
+ * false}.
+ * <p>
+ * The number of requests and of TLS connections actually opened is counted,
+ * so that the reuse can be checked; plain HTTP connections cannot be counted
+ * since HttpClient does not expose them.
+ */
+class HttpClientConnectionFactory implements HttpConnectionFactory, AutoCloseable {
+
+	static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+	static final Duration KEEP_ALIVE = Duration.ofMinutes(2);
+
+	static {
+		// Read once by HttpClient; the default (30 s for HTTP/1.1) would not span consecutive sync cycles.
+		for (final var property : new String[] { "jdk.httpclient.keepalive.timeout", "jdk.httpclient.keepalive.timeout.h2" }) {
+			if (System.getProperty(property) == null) {
+				System.setProperty(property, Long.toString(KEEP_ALIVE.toSeconds()));
+			}
+		}
+	}
+
+	/** A snapshot of the counters. */
+	record Stats(long requests, long tlsConnections) {}
+
+	/**
+	 * A custom TLS setup. JGit creates new, stateless trust managers and host
+	 * name verifiers for every connection it configures, so they are told
+	 * apart by their type.
+	 */
+	private record TlsSetup(Proxy proxy, List<Class<?>> keyManagers, List<Class<?>> trustManagers, Class<?> hostnameVerifier) {
+
+		private TlsSetup(final Proxy proxy, final KeyManager[] km, final TrustManager[] tm, final HostnameVerifier verifier) {
+			this(proxy, types(km), types(tm), verifier == null ? null : verifier.getClass());
+		}
+
+		private static List<Class<?>> types(final Object[] objects) {
+			return objects == null ? null : Arrays.stream(objects).<Class<?>> map(Object::getClass).toList();
+		}
+
+	}
+
+	private final Map<Proxy, HttpClient> clients = new ConcurrentHashMap<>();
+	private final Map<TlsSetup, HttpClient> customClients = new ConcurrentHashMap<>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong tlsConnections = new AtomicLong();
+
+	@Override
+	public HttpConnection create(final URL url) throws IOException {
+		return create(url, Proxy.NO_PROXY);
+	}
+
+	@Override
+	public HttpConnection create(final URL url, final Proxy proxy) throws IOException {
+		return new HttpClientConnection(this, proxy == null ? Proxy.NO_PROXY : proxy, url);
+	}
+
+	HttpClient getClient(final Proxy proxy) {
+		return clients.computeIfAbsent(proxy, this::newClient);
+	}
+
+	private HttpClient newClient(final Proxy proxy) {
+		try {
+			return newClientBuilder(proxy, SSLContext.getDefault()).build();
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the shared client for a custom TLS setup. Since HttpClient
+	 * always identifies the server endpoint itself, a host name verifier is
+	 * applied by the trust managers instead, which JSSE then trusts to check
+	 * the host name.
+	 *
+	 * @param km the key managers, or {@code null} for the default ones
+	 * @param tm the trust managers, or {@code null} for the default ones
+	 * @param verifier replaces the host name check, if not {@code null}
+	 */
+	HttpClient getClient(final Proxy proxy, final KeyManager[] km, final TrustManager[] tm, final SecureRandom random, final HostnameVerifier verifier) throws GeneralSecurityException {
+		final var setup = new TlsSetup(proxy, km, tm, verifier);
+		final var client = customClients.get(setup);
+		if (client != null) {
+			return client;
+		}
+		final var sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(km, verifier == null ? tm : withHostnameVerifier(tm == null ? getDefaultTrustManagers() : tm, verifier), random);
+		final var created = newClientBuilder(proxy, sslContext).build();
+		final var existing = customClients.putIfAbsent(setup, created);
+		if (existing != null) {
+			created.shutdown(); // created concurrently
+			return existing;
+		}
+		return created;
+	}
+
+	private static TrustManager[] getDefaultTrustManagers() throws GeneralSecurityException {
+		final var factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		factory.init((KeyStore) null);
+		return factory.getTrustManagers();
+	}
+
+	private static TrustManager[] withHostnameVerifier(final TrustManager[] tm, final HostnameVerifier verifier) {
+		return Arrays.stream(tm).map(manager -> manager instanceof X509TrustManager x509 ? new HostnameVerifyingTrustManager(x509, verifier) : manager).toArray(TrustManager[]::new);
+	}
+
+	private HttpClient.Builder newClientBuilder(final Proxy proxy, final SSLContext sslContext) {
+		final var builder = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).followRedirects(HttpClient.Redirect.NEVER).sslContext(new CountingSSLContext(sslContext, tlsConnections));
+		if (proxy.type() == Proxy.Type.HTTP && proxy.address() instanceof InetSocketAddress address) {
+			builder.proxy(ProxySelector.of(address));
+		}
+		else {
+			builder.proxy(HttpClient.Builder.NO_PROXY); // SOCKS is not supported by HttpClient
+		}
+		return builder;
+	}
+
+	HttpResponse<InputStream> send(final HttpClient client, final HttpRequest request) throws IOException, InterruptedException {
+		requests.incrementAndGet();
+		return client.send(request, BodyHandlers.ofInputStream());
+	}
+
+	Stats getStats() {
+		return new Stats(requests.get(), tlsConnections.get());
+	}
+
+	/** Closes the idle connections; the exchanges in progress are let complete. */
+	@Override
+	public void close() {
+		clients.values().forEach(HttpClient::shutdown);
+		clients.clear();
+		customClients.values().forEach(HttpClient::shutdown);
+		customClients.clear();
+	}
+
+	/**
+	 * Checks the certificates with the given trust manager, but not the host
+	 * name, which is checked by the verifier instead. Being an extended trust
+	 * manager, JSSE does not add its own endpoint identification.
+	 */
+	private static class HostnameVerifyingTrustManager extends X509ExtendedTrustManager {
+
+		private final X509TrustManager delegate;
+		private final HostnameVerifier verifier;
+
+		private HostnameVerifyingTrustManager(final X509TrustManager delegate, final HostnameVerifier verifier) {
+			this.delegate = delegate;
+			this.verifier = verifier;
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			delegate.checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+			delegate.checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+			delegate.checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			delegate.checkServerTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+			delegate.checkServerTrusted(chain, authType);
+			if (socket instanceof SSLSocket sslSocket) {
+				verify(sslSocket.getHandshakeSession());
+			}
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+			delegate.checkServerTrusted(chain, authType);
+			verify(engine.getHandshakeSession());
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return delegate.getAcceptedIssuers();
+		}
+
+		private void verify(final SSLSession session) throws CertificateException {
+			if (session == null || !verifier.verify(session.getPeerHost(), session)) {
+				throw new CertificateException("Host name not verified: " + (session == null ? null : session.getPeerHost()));
+			}
+		}
+
+	}
+
+	/** Counts the TLS connections, since the client creates an engine for each of them. */
+	private static class CountingSSLContext extends SSLContext {
+
+		private CountingSSLContext(final SSLContext delegate, final AtomicLong counter) {
+			super(new SSLContextSpi() {
+				@Override
+				protected void engineInit(final KeyManager[] km, final TrustManager[] tm, final SecureRandom sr) {
+					// the delegate is already initialized
+				}
+
+				@Override
+				protected SSLSocketFactory engineGetSocketFactory() {
+					return delegate.getSocketFactory();
+				}
+
+				@Override
+				protected SSLServerSocketFactory engineGetServerSocketFactory() {
+					return delegate.getServerSocketFactory();
+				}
+
+				@Override
+				protected SSLEngine engineCreateSSLEngine() {
+					counter.incrementAndGet();
+					return delegate.createSSLEngine();
+				}
+
+				@Override
+				protected SSLEngine engineCreateSSLEngine(final String host, final int port) {
+					counter.incrementAndGet();
+					return delegate.createSSLEngine(host, port);
+				}
+
+				@Override
+				protected SSLSessionContext engineGetServerSessionContext() {
+					return delegate.getServerSessionContext();
+				}
+
+				@Override
+				protected SSLSessionContext engineGetClientSessionContext() {
+					return delegate.getClientSessionContext();
+				}
+
+				@Override
+				protected SSLParameters engineGetDefaultSSLParameters() {
+					return delegate.getDefaultSSLParameters();
+				}
+
+				@Override
+				protected SSLParameters engineGetSupportedSSLParameters() {
+					return delegate.getSupportedSSLParameters();
+				}
+			}, delegate.getProvider(), delegate.getProtocol());
+		}
+
+	}
+
+}
@@ -0,0 +1,15 @@
+package io.github.albertus82.git.engine;
+
+/** How pulled remote changes are integrated with the local commits. */
+public enum IntegrationMode {
+
+	/** Always merge, creating a merge commit whenever the histories diverged. */
+	MERGE,
+
+	/**
+	 * Fast-forward when possible, otherwise replay the local commits on top of
+	 * the remote tip; merge only if replaying them conflicts.
+	 */
+	REBASE
+
+}
@@ -0,0 +1,523 @@
+package io.github.albertus82.git.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.attributes.FilterCommand;
+import org.eclipse.jgit.attributes.FilterCommandRegistry;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps large files out of the Git objects, like Git LFS does. A JGit
+ * builtin clean filter, applied to every path through
+ * {@code .git/info/attributes}, replaces the content of each file larger than
+ * the threshold with a small pointer, and moves the content into a local
+ * content-addressed store; smaller files pass through unchanged. The smudge
+ * filter does the opposite on checkout, fetching the content from the shared
+ * store (any directory reachable by all the clients, e.g. a network share)
+ * only when it is not available locally.
+ * <p>
+ * The content is copied between the stores with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which lets the kernel move the bytes without copying them through the heap.
+ * <p>
+ * Two journals in the local store keep the pending work: the objects stored
+ * but not published yet, and the pointers whose content was not available on
+ * checkout, whose files are checked out again once it is.
+ */
+@Slf4j
+class LargeFileStore {
+
+	static final String FILTER_DRIVER = "auto-sync-large";
+	static final String SMUDGE_COMMAND = Constants.BUILTIN_FILTER_PREFIX + FILTER_DRIVER + '/' + Constants.ATTR_FILTER_TYPE_SMUDGE;
+
+	private static final String CLEAN_COMMAND = Constants.BUILTIN_FILTER_PREFIX + FILTER_DRIVER + '/' + Constants.ATTR_FILTER_TYPE_CLEAN;
+	private static final String CONFIG_SECTION = "autosync";
+	private static final String CONFIG_KEY_THRESHOLD = "largeFileThreshold";
+	private static final String CONFIG_KEY_STORE = "largeFileStore";
+	private static final String ATTRIBUTES_LINE = "* " + Constants.ATTR_FILTER + '=' + FILTER_DRIVER;
+	private static final String DIRECTORY_NAME = "large-files";
+	private static final String UNPUBLISHED_JOURNAL = "unpublished";
+	private static final String MISSING_JOURNAL = "missing";
+
+	private static final String POINTER_VERSION = "version https://github.com/albertus82/git-auto-sync/large-file/v1";
+	private static final Pattern POINTER_PATTERN = Pattern.compile(Pattern.quote(POINTER_VERSION) + "\noid sha256:([0-9a-f]{64})\nsize ([0-9]+)\n");
+	private static final int MAX_POINTER_LENGTH = 256;
+	private static final int IN_CORE_LIMIT = 1024 * 1024;
+
+	static {
+		FilterCommandRegistry.register(CLEAN_COMMAND, (repository, in, out) -> new CleanFilter(repository, in, out));
+		FilterCommandRegistry.register(SMUDGE_COMMAND, (repository, in, out) -> new SmudgeFilter(repository, in, out));
+	}
+
+	private record Pointer(String oid, long size) {
+
+		private static Optional<Pointer> parse(final byte[] content) {
+			final var matcher = POINTER_PATTERN.matcher(new String(content, StandardCharsets.US_ASCII));
+			return matcher.matches() ? Optional.of(new Pointer(matcher.group(1), Long.parseLong(matcher.group(2)))) : Optional.empty();
+		}
+
+		private byte[] toBytes() {
+			return (POINTER_VERSION + "\noid sha256:" + oid + "\nsize " + size + '\n').getBytes(StandardCharsets.US_ASCII);
+		}
+
+		private String toJournalLine() {
+			return oid + ' ' + size;
+		}
+
+		private static Pointer parseJournalLine(final String line) {
+			final var fields = line.split(" ");
+			return new Pointer(fields[0], Long.parseLong(fields[1]));
+		}
+
+	}
+
+	/** The shared store could not be accessed, e.g. the network share is not reachable. */
+	static class SharedStoreException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private SharedStoreException(final Path store, final IOException cause) {
+			super("Shared large file store '" + store + "' not available: " + cause, cause);
+		}
+
+	}
+
+	private LargeFileStore() {}
+
+	/**
+	 * Enables or disables the large file mode for a repository, according to
+	 * the settings.
+	 *
+	 * @param threshold files larger than this number of bytes are stored
+	 *        outside Git, or {@code 0} to disable the large file mode
+	 * @param sharedStore where the content is published for the other
+	 *        clients, if any
+	 */
+	static void configure(final Repository repository, final long threshold, final Optional<Path> sharedStore) throws IOException {
+		final var config = repository.getConfig();
+		if (threshold > 0) {
+			config.setBoolean(ConfigConstants.CONFIG_FILTER_SECTION, FILTER_DRIVER, ConfigConstants.CONFIG_KEY_USEJGITBUILTIN, true);
+			config.setLong(CONFIG_SECTION, null, CONFIG_KEY_THRESHOLD, threshold);
+			if (sharedStore.isPresent()) {
+				config.setString(CONFIG_SECTION, null, CONFIG_KEY_STORE, sharedStore.get().toString());
+			}
+			else {
+				config.unset(CONFIG_SECTION, null, CONFIG_KEY_STORE);
+			}
+		}
+		else {
+			config.unsetSection(ConfigConstants.CONFIG_FILTER_SECTION, FILTER_DRIVER);
+			config.unset(CONFIG_SECTION, null, CONFIG_KEY_THRESHOLD);
+			config.unset(CONFIG_SECTION, null, CONFIG_KEY_STORE);
+		}
+		config.save();
+
+		final var attributes = repository.getDirectory().toPath().resolve(Constants.INFO_ATTRIBUTES);
+		final List<String> lines = Files.exists(attributes) ? new ArrayList<>(Files.readAllLines(attributes)) : new ArrayList<>();
+		final boolean present = lines.contains(ATTRIBUTES_LINE);
+		if (threshold > 0 && !present) {
+			lines.add(ATTRIBUTES_LINE);
+		}
+		else if (threshold <= 0 && present) {
+			lines.remove(ATTRIBUTES_LINE);
+		}
+		else {
+			return;
+		}
+		Files.createDirectories(attributes.getParent());
+		Files.write(attributes, lines);
+	}
+
+	/**
+	 * Copies to the shared store the content stored locally since the last
+	 * time, as recorded by the clean filter. Meant to be called before
+	 * pushing, so that the other clients find the content of the pointers
+	 * they receive.
+	 *
+	 * @return the number of files copied
+	 * @throws SharedStoreException if the shared store cannot be accessed
+	 */
+	static int publish(final Repository repository) throws IOException {
+		final var sharedStore = getSharedStore(repository);
+		final var localStore = getLocalStore(repository);
+		if (sharedStore.isEmpty()) {
+			return 0; // kept in the journal until there is a shared store
+		}
+		int count = 0;
+		final List<Pointer> published = new ArrayList<>();
+		try {
+			for (final var pointer : readJournal(repository, UNPUBLISHED_JOURNAL)) {
+				final var target = getObjectPath(sharedStore.get(), pointer.oid());
+				final var source = getObjectPath(localStore, pointer.oid());
+				if (!Files.exists(target)) {
+					try {
+						transfer(source, target);
+					}
+					catch (final NoSuchFileException e) {
+						if (!Files.exists(source)) {
+							throw e; // a local problem
+						}
+						throw new SharedStoreException(sharedStore.get(), e);
+					}
+					catch (final IOException e) {
+						throw new SharedStoreException(sharedStore.get(), e);
+					}
+					count++;
+				}
+				published.add(pointer);
+			}
+		}
+		finally {
+			removeFromJournal(repository, UNPUBLISHED_JOURNAL, published); // the others are retried by the next push
+		}
+		return count;
+	}
+
+	/**
+	 * Checks out again the files left with their pointer because the content
+	 * was not available, as soon as it is, unless they have been changed in
+	 * the meantime.
+	 *
+	 * @return the paths checked out
+	 * @throws SharedStoreException if the shared store cannot be accessed
+	 */
+	static List<String> restoreMissing(final Repository repository) throws IOException, GitAPIException {
+		final var missing = readJournal(repository, MISSING_JOURNAL);
+		if (missing.isEmpty()) {
+			return List.of();
+		}
+		final Set<String> available = new HashSet<>();
+		for (final var pointer : missing) {
+			if (fetch(repository, pointer).isPresent()) {
+				available.add(pointer.oid());
+			}
+		}
+		if (available.isEmpty()) {
+			return List.of();
+		}
+
+		final List<String> paths = new ArrayList<>();
+		final var workTree = repository.getWorkTree().toPath();
+		final var index = repository.readDirCache();
+		try (final var reader = repository.newObjectReader()) {
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				final var entry = index.getEntry(i);
+				if (entry.getStage() != DirCacheEntry.STAGE_0 || entry.getLength() > MAX_POINTER_LENGTH || (!FileMode.REGULAR_FILE.equals(entry.getFileMode()) && !FileMode.EXECUTABLE_FILE.equals(entry.getFileMode()))) {
+					continue;
+				}
+				final var blob = reader.open(entry.getObjectId(), Constants.OBJ_BLOB);
+				if (blob.getSize() > MAX_POINTER_LENGTH) {
+					continue;
+				}
+				final var content = blob.getCachedBytes();
+				final var pointer = Pointer.parse(content);
+				final var file = workTree.resolve(entry.getPathString());
+				if (pointer.isPresent() && available.contains(pointer.get().oid()) && Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) && Arrays.equals(Files.readAllBytes(file), content)) {
+					paths.add(entry.getPathString());
+				}
+			}
+		}
+		if (!paths.isEmpty()) {
+			final var checkout = Git.wrap(repository).checkout(); // from the index: only the files still holding their pointer
+			paths.forEach(checkout::addPath);
+			checkout.call();
+		}
+		removeFromJournal(repository, MISSING_JOURNAL, missing.stream().filter(pointer -> available.contains(pointer.oid())).toList());
+		return paths;
+	}
+
+	/** Tells whether a blob is a pointer, rather than the content of a file. */
+	static boolean isPointer(final byte[] content) {
+		return content.length <= MAX_POINTER_LENGTH && Pointer.parse(content).isPresent();
+	}
+
+	/**
+	 * Copies the content a blob points to straight from the store, with
+	 * zero-copy transfers, instead of streaming it through the smudge filter.
+	 *
+	 * @return {@code false} if the blob is not a pointer, or its content is
+	 *         not available
+	 */
+	static boolean copyContent(final Repository repository, final ObjectLoader blob, final Path target) throws IOException {
+		if (blob.getSize() > MAX_POINTER_LENGTH) {
+			return false;
+		}
+		final var pointer = Pointer.parse(blob.getCachedBytes());
+		final var content = pointer.isPresent() ? fetch(repository, pointer.get()) : Optional.<Path> empty();
+		if (content.isEmpty()) {
+			return false;
+		}
+		transfer(content.get(), target);
+		return true;
+	}
+
+	/** @return the content of a pointer, fetched from the shared store if needed */
+	private static Optional<Path> fetch(final Repository repository, final Pointer pointer) throws IOException {
+		final var local = getObjectPath(getLocalStore(repository), pointer.oid());
+		if (Files.exists(local)) {
+			return Optional.of(local);
+		}
+		final var sharedStore = getSharedStore(repository);
+		if (sharedStore.isEmpty()) {
+			return Optional.empty();
+		}
+		final var shared = getObjectPath(sharedStore.get(), pointer.oid());
+		try {
+			if (Files.size(shared) != pointer.size()) {
+				return Optional.empty(); // corrupted
+			}
+		}
+		catch (final NoSuchFileException e) {
+			return Optional.empty();
+		}
+		catch (final IOException e) {
+			throw new SharedStoreException(sharedStore.get(), e);
+		}
+		try {
+			transfer(shared, local);
+		}
+		catch (final IOException e) {
+			throw Files.isDirectory(sharedStore.get()) ? e : new SharedStoreException(sharedStore.get(), e);
+		}
+		return Optional.of(local);
+	}
+
+	/** Records a pointer in a journal; the filters of a repository may run on several threads. */
+	private static synchronized void appendJournal(final Repository repository, final String journal, final Pointer pointer) throws IOException {
+		final var file = getLocalStore(repository).resolve(journal);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, pointer.toJournalLine() + '\n', StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private static synchronized Set<Pointer> readJournal(final Repository repository, final String journal) throws IOException {
+		final var file = getLocalStore(repository).resolve(journal);
+		final Set<Pointer> pointers = new LinkedHashSet<>();
+		if (Files.exists(file)) {
+			for (final var line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+				if (!line.isBlank()) {
+					pointers.add(Pointer.parseJournalLine(line.trim()));
+				}
+			}
+		}
+		return pointers;
+	}
+
+	/** Removes the pointers done, keeping those recorded in the meantime. */
+	private static synchronized void removeFromJournal(final Repository repository, final String journal, final Collection<Pointer> done) throws IOException {
+		if (done.isEmpty()) {
+			return;
+		}
+		final var pointers = readJournal(repository, journal);
+		pointers.removeAll(done);
+		final var file = getLocalStore(repository).resolve(journal);
+		if (pointers.isEmpty()) {
+			Files.deleteIfExists(file);
+		}
+		else {
+			Files.write(file, pointers.stream().map(Pointer::toJournalLine).toList(), StandardCharsets.US_ASCII);
+		}
+	}
+
+	private static Path getLocalStore(final Repository repository) {
+		return repository.getDirectory().toPath().resolve(StatusCache.DIRECTORY_NAME).resolve(DIRECTORY_NAME);
+	}
+
+	private static Optional<Path> getSharedStore(final Repository repository) {
+		final var sharedStore = repository.getConfig().getString(CONFIG_SECTION, null, CONFIG_KEY_STORE);
+		return sharedStore == null || sharedStore.isBlank() ? Optional.empty() : Optional.of(Path.of(sharedStore));
+	}
+
+	private static Path getObjectPath(final Path store, final String oid) {
+		return store.resolve(oid.substring(0, 2)).resolve(oid.substring(2, 4)).resolve(oid);
+	}
+
+	/** Copies a file with zero-copy transfers, then moves it into place atomically. */
+	private static void transfer(final Path source, final Path target) throws IOException {
+		Files.createDirectories(target.getParent());
+		final var temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (final var in = FileChannel.open(source, StandardOpenOption.READ); final var out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				final long size = in.size();
+				for (long position = 0; position < size;) {
+					position += in.transferTo(position, size - position, out);
+				}
+				out.force(false);
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // same content if already there
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/** Copies a file to a stream with zero-copy transfers, where the stream allows them. */
+	private static void transfer(final Path source, final OutputStream target) throws IOException {
+		try (final var in = FileChannel.open(source, StandardOpenOption.READ)) {
+			final var out = Channels.newChannel(target); // not closed: the stream is closed by the caller
+			final long size = in.size();
+			for (long position = 0; position < size;) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the content of large files with a pointer, moving the content
+	 * into the local store. The whole work is done by the first {@link #run()}.
+	 */
+	private static class CleanFilter extends FilterCommand {
+
+		private final Repository repository;
+
+		private CleanFilter(final Repository repository, final InputStream in, final OutputStream out) {
+			super(in, out);
+			this.repository = repository;
+		}
+
+		@Override
+		public int run() throws IOException {
+			final var source = in;
+			final var target = out;
+			if (source == null) {
+				return -1;
+			}
+			in = null;
+			try (source; target) {
+				final long threshold = repository.getConfig().getLong(CONFIG_SECTION, null, CONFIG_KEY_THRESHOLD, 0);
+				final int limit = (int) Math.min(threshold + 1, IN_CORE_LIMIT);
+				final var head = source.readNBytes(Math.max(limit, 0));
+				if (threshold <= 0 || head.length < limit) {
+					target.write(head); // small file, unchanged
+				}
+				else {
+					store(head, source, target, threshold);
+				}
+			}
+			return -1;
+		}
+
+		/** Spools the content to a temporary file, which goes to the store only if larger than the threshold. */
+		private void store(final byte[] head, final InputStream source, final OutputStream target, final long threshold) throws IOException {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (final NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+			final var localStore = getLocalStore(repository);
+			Files.createDirectories(localStore);
+			final var temp = localStore.resolve(UUID.randomUUID() + ".tmp");
+			try {
+				final long size;
+				try (final var file = new DigestOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW), digest)) {
+					file.write(head);
+					size = head.length + source.transferTo(file);
+				}
+				if (size <= threshold) {
+					Files.copy(temp, target); // small file, unchanged
+					return;
+				}
+				final var oid = HexFormat.of().formatHex(digest.digest());
+				final var object = getObjectPath(localStore, oid);
+				Files.createDirectories(object.getParent());
+				final boolean stored = !Files.exists(object); // otherwise already recorded
+				Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				final var pointer = new Pointer(oid, size);
+				if (stored) {
+					appendJournal(repository, UNPUBLISHED_JOURNAL, pointer);
+				}
+				target.write(pointer.toBytes());
+			}
+			finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+	}
+
+	/**
+	 * Replaces pointers with the content they refer to, fetching it from the
+	 * shared store if needed. The whole work is done by the first
+	 * {@link #run()}.
+	 */
+	private static class SmudgeFilter extends FilterCommand {
+
+		private final Repository repository;
+
+		private SmudgeFilter(final Repository repository, final InputStream in, final OutputStream out) {
+			super(in, out);
+			this.repository = repository;
+		}
+
+		@Override
+		public int run() throws IOException {
+			final var source = in;
+			final var target = out;
+			if (source == null) {
+				return -1;
+			}
+			in = null;
+			try (source; target) {
+				final var head = source.readNBytes(MAX_POINTER_LENGTH + 1);
+				final var pointer = head.length <= MAX_POINTER_LENGTH ? Pointer.parse(head) : Optional.<Pointer> empty();
+				Optional<Path> content;
+				try {
+					content = pointer.isPresent() ? fetch(repository, pointer.get()) : Optional.<Path> empty();
+				}
+				catch (final SharedStoreException e) {
+					log.warn("{}", e.getMessage());
+					content = Optional.empty(); // restored later
+				}
+				if (content.isPresent()) {
+					transfer(content.get(), target);
+				}
+				else { // a regular blob, or content not available (yet)
+					if (pointer.isPresent()) {
+						log.warn("Content {} not available, leaving its pointer until it is.", pointer.get().oid());
+						appendJournal(repository, MISSING_JOURNAL, pointer.get());
+					}
+					target.write(head);
+					source.transferTo(target);
+				}
+			}
+			return -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,261 @@
+package io.github.albertus82.git.engine;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Fast-forwards the current branch writing the changed work tree files on
+ * all the available cores, instead of one at a time like JGit's checkout.
+ * Blobs are inflated and written concurrently, each task with its own object
+ * reader, while the bytes in flight are bounded by {@link #MEMORY_BUDGET}.
+ * The index is updated atomically once every file has been written, and
+ * {@code HEAD} is moved only after that.
+ * <p>
+ * Only the plain cases are handled here: whenever a changed path is locally
+ * modified, untracked, a symbolic link or a submodule, or needs an EOL
+ * conversion or a smudge filter, nothing is touched and the caller has to
+ * fall back to a regular merge.
+ */
+class ParallelCheckout {
+
+	/** Below this number of changed files, the regular checkout is fast enough. */
+	static final int MIN_CHANGES = 64;
+
+	static final long MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private record Change(String path, ObjectId oldId, ObjectId newId, FileMode newMode) {
+
+		private boolean isDeletion() {
+			return newId == null;
+		}
+
+	}
+
+	private final Repository repository;
+	private final Path workTree;
+
+	ParallelCheckout(final Repository repository) {
+		this.repository = repository;
+		this.workTree = repository.getWorkTree().toPath();
+	}
+
+	/**
+	 * Fast-forwards {@code HEAD} to the given commit.
+	 *
+	 * @param target a descendant of {@code HEAD}
+	 * @return {@code false} if nothing has been done because the regular
+	 *         checkout has to be used instead
+	 */
+	boolean fastForward(final ObjectId target) throws IOException {
+		final var head = repository.resolve(Constants.HEAD);
+		if (head == null || head.equals(target)) {
+			return false;
+		}
+
+		final DirCache index = repository.lockDirCache();
+		try {
+			final var changes = getChanges(head, target, index, Files.getLastModifiedTime(repository.getIndexFile().toPath()).toInstant());
+			if (changes == null || changes.size() < MIN_CHANGES) {
+				return false;
+			}
+
+			final List<PathEdit> edits = writeFiles(changes);
+			final var editor = index.editor();
+			edits.forEach(editor::add);
+			for (final var change : changes) {
+				if (change.isDeletion()) {
+					editor.add(new DeletePath(change.path()));
+					deleteFile(change.path());
+				}
+			}
+			editor.finish();
+			index.write();
+			index.commit();
+		}
+		finally {
+			index.unlock();
+		}
+
+		final var update = repository.updateRef(Constants.HEAD);
+		update.setExpectedOldObjectId(head);
+		update.setNewObjectId(target);
+		update.setRefLogMessage("pull: Fast-forward", false);
+		final var result = update.update();
+		if (result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NEW) {
+			throw new IOException("Cannot fast-forward " + repository.getBranch() + ": " + result);
+		}
+		return true;
+	}
+
+	/** @return the changed paths, or {@code null} if they cannot be checked out here */
+	private List<Change> getChanges(final ObjectId head, final ObjectId target, final DirCache index, final Instant indexTime) throws IOException {
+		final List<Change> changes = new ArrayList<>();
+		try (final var reader = repository.newObjectReader(); final var revWalk = new RevWalk(reader); final var walk = new TreeWalk(repository, reader)) {
+			walk.setOperationType(OperationType.CHECKOUT_OP);
+			walk.addTree(revWalk.parseCommit(head).getTree());
+			walk.addTree(revWalk.parseCommit(target).getTree());
+			walk.setFilter(TreeFilter.ANY_DIFF);
+			walk.setRecursive(true);
+			while (walk.next()) {
+				final var oldMode = walk.getFileMode(0);
+				final var newMode = walk.getFileMode(1);
+				if (!isPlainFile(oldMode) || !isPlainFile(newMode)) {
+					return null;
+				}
+				final var path = walk.getPathString();
+				final var oldId = oldMode == FileMode.MISSING ? null : walk.getObjectId(0);
+				final var newId = newMode == FileMode.MISSING ? null : walk.getObjectId(1);
+				if (newId != null && (walk.getEolStreamType(OperationType.CHECKOUT_OP) != EolStreamType.DIRECT || walk.getSmudgeCommand(walk.getAttributes()) != null)) {
+					return null;
+				}
+				if (!isUnmodified(path, oldId, index.getEntry(path), indexTime)) {
+					return null;
+				}
+				changes.add(new Change(path, oldId, newId, newMode));
+			}
+		}
+		return changes;
+	}
+
+	private static boolean isPlainFile(final FileMode mode) {
+		return mode == FileMode.MISSING || mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE;
+	}
+
+	/** Tells whether the work tree file still matches {@code HEAD}, so that overwriting it loses nothing. */
+	private boolean isUnmodified(final String path, final ObjectId oldId, final DirCacheEntry entry, final Instant indexTime) throws IOException {
+		final var file = workTree.resolve(path);
+		final BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch (final NoSuchFileException e) {
+			return !hasFileAncestor(path); // missing is fine, but a new directory cannot replace a file
+		}
+		if (oldId == null || entry == null) {
+			return false; // untracked
+		}
+		return attrs.isRegularFile() && entry.getStage() == DirCacheEntry.STAGE_0 && !entry.isSmudged() && entry.getLastModifiedInstant().isBefore(indexTime) // not racily clean
+				&& oldId.equals(entry.getObjectId()) && attrs.size() == entry.getLength() && attrs.lastModifiedTime().toInstant().equals(entry.getLastModifiedInstant());
+	}
+
+	private boolean hasFileAncestor(final String path) {
+		for (var parent = workTree.resolve(path).getParent(); parent != null && !parent.equals(workTree); parent = parent.getParent()) {
+			if (Files.exists(parent, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(parent, LinkOption.NOFOLLOW_LINKS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<PathEdit> writeFiles(final List<Change> changes) throws IOException {
+		final var budget = new Semaphore(toPermits(MEMORY_BUDGET));
+		final List<Future<PathEdit>> futures = new ArrayList<>();
+		try (final var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+			for (final var change : changes) {
+				if (!change.isDeletion()) {
+					futures.add(executor.submit(() -> writeFile(change, budget)));
+				}
+			}
+			final List<PathEdit> edits = new ArrayList<>(futures.size());
+			try {
+				for (final var future : futures) {
+					edits.add(future.get());
+				}
+			}
+			catch (final ExecutionException e) {
+				executor.shutdownNow(); // before close() waits for the remaining files
+				throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+			}
+			catch (final InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			return edits;
+		}
+	}
+
+	private PathEdit writeFile(final Change change, final Semaphore budget) throws IOException, InterruptedException {
+		final var file = workTree.resolve(change.path());
+		final var temp = file.resolveSibling(file.getFileName() + ".tmp-auto-sync");
+		try (final var reader = repository.newObjectReader()) {
+			final var permits = Math.min(toPermits(reader.getObjectSize(change.newId(), Constants.OBJ_BLOB)), toPermits(MEMORY_BUDGET)); // before opening: small objects are inflated right away
+			budget.acquire(permits);
+			try {
+				final var loader = reader.open(change.newId(), Constants.OBJ_BLOB);
+				Files.createDirectories(file.getParent());
+				try (final var out = Files.newOutputStream(temp)) {
+					loader.copyTo(out); // streams large objects
+				}
+			}
+			finally {
+				budget.release(permits);
+			}
+			if (change.newMode() == FileMode.EXECUTABLE_FILE) {
+				repository.getFS().setExecute(temp.toFile(), true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+
+		final var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		return new PathEdit(change.path()) {
+			@Override
+			public void apply(final DirCacheEntry entry) {
+				entry.setFileMode(change.newMode());
+				entry.setObjectId(change.newId());
+				entry.setLength(attrs.size());
+				entry.setLastModified(attrs.lastModifiedTime().toInstant());
+			}
+		};
+	}
+
+	private void deleteFile(final String path) throws IOException {
+		final var file = workTree.resolve(path);
+		Files.deleteIfExists(file);
+		for (var parent = file.getParent(); parent != null && !parent.equals(workTree); parent = parent.getParent()) {
+			try {
+				Files.deleteIfExists(parent);
+			}
+			catch (final DirectoryNotEmptyException e) {
+				break;
+			}
+		}
+	}
+
+	/** @return the semaphore permits for the given amount of bytes, one per KiB */
+	private static int toPermits(final long bytes) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 1024));
+	}
+
+}
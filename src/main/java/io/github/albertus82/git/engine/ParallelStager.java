@@ -0,0 +1,251 @@
+package io.github.albertus82.git.engine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Stages the work tree like {@code git add -A}, hashing and deflating the
+ * new blobs on all the available cores instead of one file at a time. Each
+ * task inserts its blob with its own object inserter, since inserters are
+ * not thread-safe; the index is then updated with a single edit once every
+ * blob has been written.
+ * <p>
+ * Only regular and executable files that are stored as they are, without
+ * EOL conversion or clean filter, are handled here; the others (symbolic
+ * links, submodules, filtered files, unmerged paths and files that change
+ * while being read) are left to JGit's {@code add}. The paths excluded by
+ * the {@link WorkTreeExclusions} are not even walked.
+ */
+class ParallelStager {
+
+	/** Files up to this size are hashed from memory. */
+	private static final int MAX_BUFFERED_SIZE = 8 * 1024 * 1024;
+
+	/** A blob to hash, with the stat data taken before reading it. */
+	private record Job(String path, Path file, FileMode mode, BasicFileAttributes attrs) {}
+
+	private final Git git;
+	private final Repository repository;
+	private final Path workTree;
+	private final WorkTreeExclusions exclusions;
+
+	ParallelStager(final Git git, final WorkTreeExclusions exclusions) {
+		this.git = git;
+		this.repository = git.getRepository();
+		this.workTree = repository.getWorkTree().toPath();
+		this.exclusions = exclusions;
+	}
+
+	/** Stages the whole work tree. */
+	void stageAll() throws IOException, GitAPIException {
+		stage(Optional.empty());
+	}
+
+	/** Stages the given paths only, files or directories. */
+	void stagePaths(final Collection<String> paths) throws IOException, GitAPIException {
+		if (!paths.isEmpty()) {
+			stage(Optional.of(paths));
+		}
+	}
+
+	private void stage(final Optional<Collection<String>> paths) throws IOException, GitAPIException {
+		final List<String> fallback = new ArrayList<>();
+		final DirCache index = repository.lockDirCache();
+		try {
+			final List<Job> jobs = new ArrayList<>();
+			final List<String> deletions = new ArrayList<>();
+			walk(index, paths, jobs, deletions, fallback);
+			if (!jobs.isEmpty() || !deletions.isEmpty()) {
+				final var editor = index.editor();
+				hash(jobs, fallback).forEach(editor::add);
+				deletions.forEach(path -> editor.add(new DeletePath(path)));
+				editor.finish();
+				index.write();
+				index.commit();
+			}
+		}
+		finally {
+			index.unlock();
+		}
+
+		if (!fallback.isEmpty()) { // equivalent to: git add -A -- <paths>
+			final var add = git.add();
+			final var update = git.add().setUpdate(true);
+			for (final var path : fallback) {
+				add.addFilepattern(path);
+				update.addFilepattern(path);
+			}
+			add.call();
+			update.call();
+		}
+	}
+
+	/** Collects the files to hash and the deletions, like {@code git add -A} would. */
+	private void walk(final DirCache index, final Optional<Collection<String>> paths, final List<Job> jobs, final List<String> deletions, final List<String> fallback) throws IOException {
+		try (final var reader = repository.newObjectReader(); final var walk = new TreeWalk(repository, reader)) {
+			walk.setOperationType(OperationType.CHECKIN_OP);
+			walk.addTree(new DirCacheIterator(index));
+			walk.addTree(new FileTreeIterator(repository));
+			final var filter = exclusions.newTreeFilter(); // prunes the excluded subtrees before they are entered
+			walk.setFilter(paths.isPresent() ? AndTreeFilter.create(PathFilterGroup.createFromStrings(paths.get()), filter) : filter);
+			while (walk.next()) {
+				final var indexEntry = walk.getTree(0, DirCacheIterator.class);
+				final var file = walk.getTree(1, WorkingTreeIterator.class);
+				final var entry = indexEntry == null ? null : indexEntry.getDirCacheEntry();
+				if (walk.isSubtree()) {
+					if (file != null && indexEntry == null && file.isEntryIgnored()) {
+						continue; // untracked and ignored: not even walked
+					}
+					walk.enterSubtree();
+					continue;
+				}
+				final var path = walk.getPathString();
+				if (file == null) {
+					if (entry != null && entry.getStage() == DirCacheEntry.STAGE_0) {
+						deletions.add(path);
+					}
+					else if (entry != null) {
+						fallback.add(path);
+					}
+					continue;
+				}
+				if (entry == null && file.isEntryIgnored()) {
+					continue;
+				}
+				if (entry != null && entry.getStage() != DirCacheEntry.STAGE_0) {
+					fallback.add(path); // unmerged
+					continue;
+				}
+				if (entry != null && !file.isModified(entry, false, reader)) {
+					continue; // a timestamp change is enough to rehash, in parallel
+				}
+				final var mode = file.getIndexFileMode(indexEntry);
+				if ((mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) || walk.getEolStreamType(OperationType.CHECKIN_OP) != EolStreamType.DIRECT || walk.getFilterCommand(Constants.ATTR_FILTER_TYPE_CLEAN) != null) {
+					fallback.add(path);
+					continue;
+				}
+				final var filePath = workTree.resolve(path);
+				try {
+					jobs.add(new Job(path, filePath, mode, Files.readAttributes(filePath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+				}
+				catch (final NoSuchFileException e) {
+					fallback.add(path); // deleted in the meantime
+				}
+			}
+		}
+	}
+
+	/** Hashes and inserts the blobs in parallel. */
+	private List<PathEdit> hash(final List<Job> jobs, final List<String> fallback) throws IOException {
+		final List<PathEdit> edits = new ArrayList<>(jobs.size());
+		if (jobs.size() < 2) {
+			for (final var job : jobs) {
+				insert(job).ifPresentOrElse(edits::add, () -> fallback.add(job.path()));
+			}
+			return edits;
+		}
+		final List<Future<Optional<PathEdit>>> futures = new ArrayList<>(jobs.size());
+		try (final var executor = Executors.newFixedThreadPool(Math.min(jobs.size(), Runtime.getRuntime().availableProcessors()))) {
+			for (final var job : jobs) {
+				futures.add(executor.submit(() -> insert(job)));
+			}
+			try {
+				for (int i = 0; i < jobs.size(); i++) {
+					final var path = jobs.get(i).path();
+					futures.get(i).get().ifPresentOrElse(edits::add, () -> fallback.add(path));
+				}
+			}
+			catch (final ExecutionException e) {
+				executor.shutdownNow(); // before close() waits for the remaining blobs
+				throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+			}
+			catch (final InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			return edits;
+		}
+	}
+
+	/**
+	 * Files up to {@link #MAX_BUFFERED_SIZE} are read whole, and their blob
+	 * is only written once their size is confirmed. Larger files are
+	 * streamed after checking their size, so that only a change while they
+	 * are being read can leave an unreferenced object, pruned by the next
+	 * {@code gc}.
+	 *
+	 * @return the index update, or nothing if the file changed while being
+	 *         read
+	 */
+	private Optional<PathEdit> insert(final Job job) throws IOException {
+		final var attrs = job.attrs();
+		try (final var inserter = repository.newObjectInserter(); final var channel = FileChannel.open(job.file(), StandardOpenOption.READ); final var in = Channels.newInputStream(channel)) {
+			if (channel.size() != attrs.size()) {
+				return Optional.empty(); // changed since the walk
+			}
+			final ObjectId id;
+			if (attrs.size() <= MAX_BUFFERED_SIZE) {
+				final var content = in.readNBytes((int) attrs.size());
+				if (content.length != attrs.size() || in.read() != -1) {
+					return Optional.empty(); // shrunk or grown
+				}
+				id = inserter.insert(Constants.OBJ_BLOB, content);
+			}
+			else {
+				id = inserter.insert(Constants.OBJ_BLOB, attrs.size(), in);
+				if (in.read() != -1) {
+					return Optional.empty(); // grown
+				}
+			}
+			inserter.flush();
+			return Optional.of(new PathEdit(job.path()) {
+				@Override
+				public void apply(final DirCacheEntry entry) {
+					entry.setFileMode(job.mode());
+					entry.setObjectId(id);
+					entry.setLength(attrs.size());
+					entry.setLastModified(attrs.lastModifiedTime().toInstant());
+				}
+			});
+		}
+		catch (final EOFException | NoSuchFileException e) {
+			return Optional.empty(); // shrunk or deleted
+		}
+	}
+
+}
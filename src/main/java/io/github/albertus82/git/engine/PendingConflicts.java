@@ -0,0 +1,152 @@
+package io.github.albertus82.git.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import io.github.albertus82.git.engine.ConflictResolver.Conflict;
+import io.github.albertus82.git.engine.ConflictResolver.Side;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent list of the conflicts the user has not resolved yet, even across
+ * restarts. Their paths were committed and checked out as THEIRS, so that the
+ * work tree stays clean and the sync goes on; OURS is only referenced by its
+ * object id, to be restored if the user chooses it.
+ */
+@Slf4j
+class PendingConflicts {
+
+	private static final String FILE_NAME = "pending-conflicts";
+	private static final int MAGIC = 0x47415043; // GAPC
+	private static final int VERSION = 1;
+
+	private final Path file;
+	private final Path workTree;
+	private final Map<String, Conflict> conflicts = new TreeMap<>();
+
+	private PendingConflicts(final Path workTree, final Path file) {
+		this.workTree = workTree;
+		this.file = file;
+	}
+
+	static PendingConflicts load(final Repository repository) {
+		final var pending = new PendingConflicts(repository.getWorkTree().toPath(), repository.getDirectory().toPath().resolve(StatusCache.DIRECTORY_NAME).resolve(FILE_NAME));
+		if (Files.exists(pending.file)) {
+			try {
+				pending.read();
+			}
+			catch (final IOException | RuntimeException e) {
+				log.warn("Cannot read pending conflicts {}:", pending.file, e); // not discarded: it would commit OURS
+				throw new IllegalStateException("Unreadable pending conflicts " + pending.file, e);
+			}
+		}
+		return pending;
+	}
+
+	Path getWorkTree() {
+		return workTree;
+	}
+
+	synchronized boolean isEmpty() {
+		return conflicts.isEmpty();
+	}
+
+	synchronized Set<String> getPaths() {
+		return Set.copyOf(conflicts.keySet());
+	}
+
+	synchronized List<Conflict> getConflicts() {
+		return List.copyOf(conflicts.values());
+	}
+
+	/** Adds or replaces the given conflicts. */
+	synchronized void putAll(final Collection<Conflict> added) throws IOException {
+		added.forEach(conflict -> conflicts.put(conflict.path(), conflict));
+		save();
+	}
+
+	synchronized void removeAll(final Collection<String> paths) throws IOException {
+		if (conflicts.keySet().removeAll(paths)) {
+			save();
+		}
+	}
+
+	private void save() throws IOException {
+		if (conflicts.isEmpty()) {
+			Files.deleteIfExists(file);
+			return;
+		}
+		Files.createDirectories(file.getParent());
+		final var temp = file.resolveSibling(FILE_NAME + ".tmp");
+		try (final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(conflicts.size());
+			for (final var conflict : conflicts.values()) {
+				out.writeUTF(conflict.path());
+				writeSide(out, conflict.ours());
+				writeSide(out, conflict.theirs());
+				out.writeBoolean(conflict.lastModified().isPresent());
+				if (conflict.lastModified().isPresent()) {
+					out.writeLong(conflict.lastModified().get().toEpochMilli());
+				}
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void read() throws IOException {
+		try (final var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported pending conflicts format");
+			}
+			final var count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final var path = in.readUTF();
+				final var ours = readSide(in);
+				final var theirs = readSide(in);
+				final var lastModified = in.readBoolean() ? Optional.of(Instant.ofEpochMilli(in.readLong())) : Optional.<Instant> empty();
+				conflicts.put(path, new Conflict(path, ours, theirs, lastModified));
+			}
+		}
+	}
+
+	private static void writeSide(final DataOutputStream out, final Side side) throws IOException {
+		out.writeBoolean(side != null);
+		if (side != null) {
+			final var id = new byte[Constants.OBJECT_ID_LENGTH];
+			side.id().copyRawTo(id, 0);
+			out.write(id);
+			out.writeInt(side.mode().getBits());
+			out.writeLong(side.size());
+		}
+	}
+
+	private static Side readSide(final DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null; // deleted on that side
+		}
+		final var id = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(id);
+		return new Side(ObjectId.fromRaw(id), FileMode.fromBits(in.readInt()), in.readLong());
+	}
+
+}
@@ -0,0 +1,64 @@
+package io.github.albertus82.git.engine;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive pull cadence. The interval drops to the minimum as soon as a pull
+ * brings in new commits and doubles after every pull that finds nothing, up
+ * to the maximum. Each delay is stretched by a random jitter of up to
+ * {@link #MAX_JITTER}, so that clients started together do not keep hitting
+ * the remote at the same time.
+ * <p>
+ * The same backoff spaces the attempts to reach the remote again after a
+ * failure, each failed attempt counting as a pull that found nothing.
+ */
+class PullBackoff {
+
+	static final double MAX_JITTER = 0.2;
+
+	private final Supplier<Duration> minInterval;
+	private final Supplier<Duration> maxInterval;
+
+	private Duration interval;
+	private long next; // System.nanoTime() after which a pull is due
+
+	PullBackoff(final Supplier<Duration> minInterval, final Supplier<Duration> maxInterval) {
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.next = System.nanoTime(); // first pull right away
+	}
+
+	synchronized boolean isDue() {
+		return System.nanoTime() - next >= 0;
+	}
+
+	/**
+	 * Computes the next pull time.
+	 *
+	 * @param changed whether the last pull brought in new commits
+	 * @return the delay until the next pull
+	 */
+	synchronized Duration pulled(final boolean changed) {
+		final var min = minInterval.get();
+		final var max = maxInterval.get().compareTo(min) < 0 ? min : maxInterval.get();
+		if (changed || interval == null) {
+			interval = min;
+		}
+		else {
+			final var doubled = interval.multipliedBy(2);
+			interval = doubled.compareTo(max) > 0 ? max : doubled;
+		}
+		final var delay = Duration.ofNanos((long) (interval.toNanos() * (1 + ThreadLocalRandom.current().nextDouble(MAX_JITTER))));
+		next = System.nanoTime() + delay.toNanos();
+		return delay;
+	}
+
+	/** Starts over from the minimum interval, making the next pull due right away. */
+	synchronized void reset() {
+		interval = null;
+		next = System.nanoTime();
+	}
+
+}
@@ -0,0 +1,205 @@
+package io.github.albertus82.git.engine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Keeps the transport to a remote open across the probe, fetch and push of a
+ * sync cycle, and across the cycles that follow within {@link #KEEP_ALIVE}.
+ * Over SSH this means that the session is connected and authenticated once,
+ * and every operation only opens a new channel on it; JGit's porcelain
+ * commands instead open a new transport, thus a new session, every time.
+ * <p>
+ * A reused transport may have been dropped by the server in the meantime:
+ * if an operation fails on it because of the connection, it is retried once
+ * on a fresh transport. Other failures, e.g. refused credentials, are never
+ * retried, so as not to double the failed attempts seen by the server.
+ */
+class RemoteConnection implements AutoCloseable {
+
+	static final Duration KEEP_ALIVE = Duration.ofMinutes(2);
+
+	private static final List<String> authenticationFailureMessages = List.of("not authorized", "unauthorized", "authentication", "not permitted");
+
+	/** An operation on an open transport. */
+	@FunctionalInterface
+	interface TransportCall<T> {
+		T call(Transport transport) throws IOException;
+	}
+
+	private final TransportConfigCallback transportConfig;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private Transport transport;
+	private Repository repository;
+	private String remote;
+	private long lastUsed; // System.nanoTime()
+	private volatile boolean closed;
+
+	/** @param transportConfig applied to every new transport */
+	RemoteConnection(final TransportConfigCallback transportConfig) {
+		this.transportConfig = transportConfig;
+	}
+
+	/**
+	 * Runs an operation on the transport to the given remote, opening it only
+	 * if needed.
+	 */
+	<T> T call(final Repository repository, final String remote, final CredentialsProvider credentialsProvider, final TransportCall<T> call) throws IOException {
+		lock.lock();
+		try {
+			final boolean reused = isReusable(repository, remote);
+			if (!reused) {
+				open(repository, remote);
+			}
+			transport.setCredentialsProvider(credentialsProvider);
+			try {
+				return call.call(transport);
+			}
+			catch (final TransportException e) {
+				closeTransport();
+				if (!reused || isAuthenticationFailure(e) || !(isNetworkFailure(e) || isConnectionClosed(e))) {
+					throw e;
+				}
+				open(repository, remote); // stale connection
+				transport.setCredentialsProvider(credentialsProvider);
+				return call.call(transport);
+			}
+			finally {
+				lastUsed = System.nanoTime();
+				if (closed) {
+					closeTransport();
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Tells whether the remote could not be reached or timed out, as opposed to a local, a protocol or an authentication error. */
+	static boolean isNetworkFailure(final Throwable e) {
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketException || cause instanceof SocketTimeoutException || cause instanceof UnknownHostException || cause instanceof HttpTimeoutException || cause instanceof TimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Tells whether the remote refused the credentials, which JGit only tells by its messages. */
+	static boolean isAuthenticationFailure(final Throwable e) {
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if ((cause instanceof TransportException || cause instanceof org.eclipse.jgit.api.errors.TransportException) && cause.getMessage() != null) {
+				final var message = cause.getMessage().toLowerCase(Locale.ROOT);
+				if (authenticationFailureMessages.stream().anyMatch(message::contains)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Tells whether a reused connection turned out to be closed, e.g. an SSH session dropped by the server. */
+	private static boolean isConnectionClosed(final Throwable e) {
+		for (var cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof EOFException || cause instanceof ClosedChannelException || (cause.getMessage() != null && cause.getMessage().toLowerCase(Locale.ROOT).contains("closed"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isReusable(final Repository repository, final String remote) throws IOException {
+		if (transport == null) {
+			return false;
+		}
+		if (repository != this.repository || !remote.equals(this.remote) || System.nanoTime() - lastUsed >= KEEP_ALIVE.toNanos() || !transport.getURI().equals(getUri(repository, remote))) {
+			closeTransport();
+			return false;
+		}
+		return true;
+	}
+
+	private static URIish getUri(final Repository repository, final String remote) throws IOException {
+		try {
+			final var uris = new RemoteConfig(repository.getConfig(), remote).getURIs();
+			return uris.isEmpty() ? null : uris.get(0);
+		}
+		catch (final URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void open(final Repository repository, final String remote) throws IOException {
+		try {
+			transport = Transport.open(repository, remote);
+		}
+		catch (final URISyntaxException e) {
+			throw new IOException(e);
+		}
+		transportConfig.configure(transport);
+		this.repository = repository;
+		this.remote = remote;
+	}
+
+	/**
+	 * Closes the transport if it has not been used for {@link #KEEP_ALIVE}.
+	 * Never waits for an operation in progress.
+	 */
+	void closeIfIdle() {
+		if (lock.tryLock()) {
+			try {
+				if (transport != null && System.nanoTime() - lastUsed >= KEEP_ALIVE.toNanos()) {
+					closeTransport();
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void closeTransport() {
+		if (transport != null) {
+			transport.close();
+		}
+		transport = null;
+		repository = null;
+		remote = null;
+	}
+
+	/** Closes the transport now, or as soon as the operation in progress ends. */
+	@Override
+	public void close() {
+		closed = true;
+		if (lock.tryLock()) {
+			try {
+				closeTransport();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package io.github.albertus82.git.engine;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Clones a remote repository into an empty work tree in separate, restartable
+ * steps: init, remote setup, (optionally shallow) fetch and checkout. Unlike
+ * {@code git clone}, nothing is deleted on failure: a marker file records
+ * that the clone is incomplete, and the next attempt resumes from the
+ * existing repository, so that the objects already fetched are not
+ * downloaded again.
+ */
+class RepositoryCloner {
+
+	private static final String MARKER_FILE_NAME = "clone-incomplete";
+
+	/** Configures the new repository before anything is fetched or checked out. */
+	@FunctionalInterface
+	interface Setup {
+		void apply(Repository repository) throws IOException;
+	}
+
+	private final Path workTree;
+	private final String uri;
+	private final CredentialsProvider credentialsProvider;
+	private final TransportConfigCallback transportConfig;
+	private final Setup setup;
+	private final ProgressMonitor progressMonitor;
+	private final int depth;
+	private final Optional<Instant> shallowSince;
+
+	/**
+	 * @param workTree the directory to clone into
+	 * @param uri the remote URL
+	 * @param credentialsProvider the remote credentials
+	 * @param transportConfig applied to the fetch transport
+	 * @param setup applied to the repository before fetching
+	 * @param progressMonitor receives the fetch and checkout progress
+	 * @param depth number of commits to fetch, or {@code 0} for the full
+	 *        history
+	 * @param shallowSince oldest commit time to fetch, if any
+	 */
+	RepositoryCloner(final Path workTree, final String uri, final CredentialsProvider credentialsProvider, final TransportConfigCallback transportConfig, final Setup setup, final ProgressMonitor progressMonitor, final int depth, final Optional<Instant> shallowSince) {
+		this.workTree = workTree;
+		this.uri = uri;
+		this.credentialsProvider = credentialsProvider;
+		this.transportConfig = transportConfig;
+		this.setup = setup;
+		this.progressMonitor = progressMonitor;
+		this.depth = depth;
+		this.shallowSince = shallowSince;
+	}
+
+	/**
+	 * Tells whether the work tree has to be cloned: it is either an empty
+	 * directory, or a clone that did not complete.
+	 */
+	static boolean isCloneRequired(final Path workTree) throws IOException {
+		final var gitDir = workTree.resolve(Constants.DOT_GIT);
+		if (FileKey.isGitRepository(gitDir.toFile(), FS.DETECTED)) {
+			return Files.exists(getMarker(gitDir));
+		}
+		if (Files.isDirectory(workTree)) {
+			try (final var children = Files.list(workTree)) {
+				if (children.findAny().isPresent()) {
+					throw new IOException("Cannot clone into '" + workTree + "': the directory is not empty and is not a Git repository");
+				}
+			}
+		}
+		return true;
+	}
+
+	/** @return the name of the checked out branch, if the remote is not empty */
+	Optional<String> call() throws IOException, GitAPIException, URISyntaxException {
+		Files.createDirectories(workTree);
+		final var gitDir = workTree.resolve(Constants.DOT_GIT);
+		final var marker = getMarker(gitDir);
+		final boolean resuming = FileKey.isGitRepository(gitDir.toFile(), FS.DETECTED);
+
+		try (final var git = resuming ? Git.open(workTree.toFile()) : Git.init().setDirectory(workTree.toFile()).call()) {
+			if (!resuming) {
+				Files.createDirectories(marker.getParent());
+				Files.createFile(marker);
+				git.remoteAdd().setName(Constants.DEFAULT_REMOTE_NAME).setUri(new URIish(uri)).call();
+			}
+			setup.apply(git.getRepository());
+
+			final var fetch = git.fetch().setRemote(Constants.DEFAULT_REMOTE_NAME).setCredentialsProvider(credentialsProvider).setTransportConfigCallback(transportConfig).setProgressMonitor(progressMonitor).setTagOpt(TagOpt.NO_TAGS);
+			if (depth > 0) {
+				fetch.setDepth(depth);
+			}
+			shallowSince.ifPresent(fetch::setShallowSince);
+			final var branch = getDefaultBranch(fetch.call());
+
+			if (branch.isPresent()) {
+				final var checkout = git.checkout().setName(branch.get()).setForced(resuming).setProgressMonitor(progressMonitor); // a previous checkout may have been interrupted
+				if (git.getRepository().exactRef(Constants.R_HEADS + branch.get()) == null) {
+					checkout.setCreateBranch(true).setStartPoint(Constants.DEFAULT_REMOTE_NAME + '/' + branch.get()).setUpstreamMode(SetupUpstreamMode.TRACK);
+				}
+				checkout.call();
+			}
+			Files.delete(marker);
+			return branch;
+		}
+	}
+
+	private static Optional<String> getDefaultBranch(final FetchResult result) {
+		final Ref head = result.getAdvertisedRef(Constants.HEAD);
+		if (head == null || head.getObjectId() == null) {
+			return Optional.empty(); // empty remote
+		}
+		if (head.isSymbolic()) {
+			return Optional.of(Repository.shortenRefName(head.getTarget().getName()));
+		}
+		return result.getAdvertisedRefs().stream().filter(ref -> ref.getName().startsWith(Constants.R_HEADS) && head.getObjectId().equals(ref.getObjectId())).map(ref -> Repository.shortenRefName(ref.getName())).findFirst();
+	}
+
+	private static Path getMarker(final Path gitDir) {
+		return gitDir.resolve(StatusCache.DIRECTORY_NAME).resolve(MARKER_FILE_NAME);
+	}
+
+}
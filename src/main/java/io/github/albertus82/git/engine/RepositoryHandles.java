@@ -0,0 +1,89 @@
+package io.github.albertus82.git.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.lib.RepositoryCacheConfig;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Hands out long-lived repositories backed by JGit's {@link RepositoryCache},
+ * so that pack indexes, refs and configuration stay cached across sync
+ * cycles. A repository is actually closed only after every {@link Handle} has
+ * been released and it has stayed idle for {@link #IDLE_TIMEOUT}, or as soon
+ * as it is released after the configured path has changed.
+ */
+class RepositoryHandles {
+
+	static final Duration IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+	static {
+		final var config = new RepositoryCacheConfig();
+		config.setExpireAfter(IDLE_TIMEOUT.toMillis());
+		config.install();
+	}
+
+	/** A counted reference to an open repository. */
+	static final class Handle implements AutoCloseable {
+
+		private final Repository repository;
+		private final Git git;
+		private final AtomicBoolean open = new AtomicBoolean(true);
+
+		private Handle(final Repository repository) {
+			this.repository = repository;
+			this.git = Git.wrap(repository); // closing this Git does not close the repository
+		}
+
+		Git git() {
+			return git;
+		}
+
+		@Override
+		public void close() {
+			if (open.compareAndSet(true, false)) {
+				repository.close();
+			}
+		}
+
+	}
+
+	private String configuredPath;
+	private FileKey key;
+	private Repository current;
+
+	/**
+	 * @param configuredPath the work tree path as configured by the user
+	 * @return a handle that must be closed when no longer needed
+	 */
+	synchronized Handle open(final String configuredPath) throws IOException {
+		if (key == null || !configuredPath.equals(this.configuredPath)) {
+			if (current != null) { // closed now if idle, otherwise as soon as its last handle is released
+				current.incrementOpen();
+				RepositoryCache.unregister(key);
+				current.close();
+			}
+			key = FileKey.lenient(Path.of(configuredPath).toRealPath().toFile(), FS.DETECTED);
+			this.configuredPath = configuredPath;
+		}
+		current = RepositoryCache.open(key);
+		return new Handle(current);
+	}
+
+	/** Closes the cached repository, regardless of idle time. */
+	synchronized void close() {
+		if (current != null) {
+			RepositoryCache.close(current);
+		}
+		current = null;
+		key = null;
+		configuredPath = null;
+	}
+
+}
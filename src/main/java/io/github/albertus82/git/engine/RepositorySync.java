@@ -0,0 +1,934 @@
+package io.github.albertus82.git.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.api.RebaseCommand;
+import org.eclipse.jgit.api.RebaseResult;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.Shell;
+
+import io.github.albertus82.git.config.ApplicationConfig;
+import io.github.albertus82.git.engine.GitSyncService.Defaults;
+import io.github.albertus82.git.gui.preference.Preference;
+import io.github.albertus82.jface.preference.IPreferencesConfiguration;
+
+/**
+ * Synchronization state machine of a single repository. Timers run on the
+ * scheduler shared by all the repositories, while sync cycles run on the
+ * shared worker pool; at most one cycle per repository runs at any time.
+ */
+class RepositorySync {
+
+	private static final Duration pollInterval = Duration.ofSeconds(5); // used only when file system events are not available
+	private static final Duration safetyNetInterval = Duration.ofSeconds(60);
+	private static final Duration rescanInterval = Duration.ofMinutes(10);
+	private static final int dirtyPathJournalCapacity = 10_000;
+	private static final Duration reconnectIntervalMin = Duration.ofSeconds(5);
+	private static final Duration reconnectIntervalMax = Duration.ofMinutes(5);
+	private static final Duration conflictPromptInterval = Duration.ofMinutes(15);
+
+	private final IPreferencesConfiguration configuration = ApplicationConfig.getPreferencesConfiguration();
+
+	private final GitSyncService service;
+	private final String configuredPath;
+	private final Optional<String> remoteUrl;
+	private final String logPrefix;
+	private final ScheduledExecutorService scheduler;
+	private final Executor workers;
+	private final AtomicReference<SyncState> state = new AtomicReference<>(SyncState.IDLE);
+	private final AtomicBoolean syncInProgress = new AtomicBoolean(false);
+	private final PullBackoff pullBackoff = new PullBackoff(() -> Duration.ofSeconds(configuration.getInt(Preference.SYNC_PULL_INTERVAL_MIN, Defaults.SYNC_PULL_INTERVAL_MIN)), () -> Duration.ofSeconds(configuration.getInt(Preference.SYNC_PULL_INTERVAL_MAX, Defaults.SYNC_PULL_INTERVAL_MAX)));
+	private final AtomicBoolean pushRequired = new AtomicBoolean(false);
+	private final AtomicLong pushPendingSince = new AtomicLong(0);
+	private final AtomicBoolean syncNowRequested = new AtomicBoolean(false);
+	private final AtomicBoolean offline = new AtomicBoolean(false);
+	private final AtomicBoolean largeFilesConfigured = new AtomicBoolean(false);
+	private final AtomicBoolean authenticationFailed = new AtomicBoolean(false);
+	private final PullBackoff reconnectBackoff = new PullBackoff(() -> reconnectIntervalMin, () -> reconnectIntervalMax);
+	private final AtomicBoolean localChanges = new AtomicBoolean(true); // the work tree may have changed while we were not watching
+	private final AtomicBoolean syncRequested = new AtomicBoolean(false);
+	private final AtomicLong lastRescan = new AtomicLong(0);
+	private final DirtyPathJournal dirtyPaths = new DirtyPathJournal(dirtyPathJournalCapacity);
+	private final Debouncer localChangesDebouncer;
+	private final RepositoryHandles repositories = new RepositoryHandles();
+	private final RemoteConnection connection;
+	private final WorkTreeExclusions exclusions;
+	private final ConflictRules conflictRules;
+	private final Set<String> textMergeExtensions;
+	private final Map<String, ConflictChoice> conflictChoices = new ConcurrentHashMap<>(); // from the user, applied by the next cycle
+	private final AtomicBoolean askingUser = new AtomicBoolean(false);
+	private final AtomicLong nextConflictPrompt = new AtomicLong(0);
+	private volatile boolean stopped;
+	private volatile WorkTreeWatcher watcher;
+	private volatile StatusCache statusCache;
+	private volatile PendingConflicts pendingConflicts;
+	private volatile CredentialsProvider credentialsProvider;
+	private volatile ScheduledFuture<?> tick;
+	private volatile ScheduledFuture<?> pullTimer;
+	private volatile ScheduledFuture<?> pushTimer;
+	private volatile ScheduledFuture<?> connectionReaper;
+
+	/**
+	 * @param service the owning service
+	 * @param configuredPath the work tree path as configured by the user
+	 * @param remoteUrl the URL to clone from if the work tree is empty
+	 * @param logPrefix prepended to every console message of this repository
+	 */
+	RepositorySync(final GitSyncService service, final String configuredPath, final Optional<String> remoteUrl, final String logPrefix, final ScheduledExecutorService scheduler, final Executor workers) {
+		this.service = service;
+		this.configuredPath = configuredPath;
+		this.remoteUrl = remoteUrl;
+		this.logPrefix = logPrefix;
+		this.scheduler = scheduler;
+		this.workers = workers;
+		this.connection = new RemoteConnection(service.getTransportConfigCallback());
+		this.conflictRules = new ConflictRules(configuration.getString(Preference.SYNC_CONFLICT_RULES, ""));
+		this.textMergeExtensions = Arrays.stream(configuration.getString(Preference.SYNC_TEXT_MERGE_EXTENSIONS, "").split(",")).map(extension -> extension.trim().replaceFirst("^\\.", "").toLowerCase(Locale.ROOT)).filter(extension -> !extension.isEmpty()).collect(Collectors.toUnmodifiableSet());
+		this.exclusions = new WorkTreeExclusions(List.of(configuration.getString(Preference.SYNC_EXCLUDE_DIRECTORIES, "").split(",")), configuration.getInt(Preference.SYNC_EXCLUDE_MAX_FILE_SIZE, Defaults.SYNC_EXCLUDE_MAX_FILE_SIZE) * 1024L * 1024);
+		this.localChangesDebouncer = new Debouncer(scheduler, this::onLocalChangesSettled, () -> Duration.ofSeconds(configuration.getInt(Preference.SYNC_QUIET_PERIOD, Defaults.SYNC_QUIET_PERIOD)), () -> Duration.ofSeconds(configuration.getInt(Preference.SYNC_MAX_DELAY, Defaults.SYNC_MAX_DELAY)));
+	}
+
+	void start() throws IOException {
+		if (remoteUrl.isPresent()) {
+			Files.createDirectories(Path.of(configuredPath)); // to be cloned
+		}
+		final var repoPath = Path.of(configuredPath).toRealPath();
+		log("Using local path '" + repoPath + "'.");
+		final var interval = startWatcher(repoPath) ? safetyNetInterval : pollInterval;
+		tick = scheduler.scheduleWithFixedDelay(this::requestSync, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+		connectionReaper = scheduler.scheduleWithFixedDelay(connection::closeIfIdle, RemoteConnection.KEEP_ALIVE.toMillis(), RemoteConnection.KEEP_ALIVE.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops scheduling cycles for this repository only; the shared executors
+	 * are left alone. A cycle already running goes on until the workers are
+	 * stopped, then the handles are released by {@link #close()}.
+	 */
+	void stop() {
+		stopped = true;
+		localChangesDebouncer.cancel();
+		cancel(tick);
+		cancel(pullTimer);
+		cancel(pushTimer);
+		cancel(connectionReaper);
+		stopWatcher();
+	}
+
+	/** Releases the handles, once no cycle can use them any longer. */
+	void close() {
+		saveStatusCache();
+		connection.close();
+		repositories.close();
+	}
+
+	private static void cancel(final ScheduledFuture<?> future) {
+		if (future != null) {
+			future.cancel(false);
+		}
+	}
+
+	private boolean startWatcher(final Path repoPath) {
+		try {
+			watcher = new WorkTreeWatcher(repoPath, new WorkTreeWatcher.Listener() {
+				@Override
+				public void changed(final Path path) {
+					dirtyPaths.add(path);
+					localChangesDebouncer.signal();
+				}
+
+				@Override
+				public void overflowed() {
+					dirtyPaths.invalidate();
+					localChangesDebouncer.signal();
+				}
+			}, exclusions);
+			return true;
+		}
+		catch (final IOException e) {
+			log("Cannot watch '" + repoPath + "' for changes, falling back to polling: " + e);
+			return false;
+		}
+	}
+
+	private void stopWatcher() {
+		final var current = watcher;
+		watcher = null;
+		if (current != null) {
+			try {
+				current.close();
+			}
+			catch (final IOException e) {
+				onSyncFailure(e);
+			}
+		}
+	}
+
+	/** Invoked once a burst of work tree changes has settled. */
+	private void onLocalChangesSettled() {
+		localChanges.set(true);
+		requestSync();
+	}
+
+	private void saveStatusCache() {
+		final var current = statusCache;
+		if (current != null) {
+			try {
+				current.save();
+			}
+			catch (final IOException e) {
+				onSyncFailure(e);
+			}
+		}
+	}
+
+	private StatusCache getStatusCache(final Repository repo) {
+		var current = statusCache;
+		if (current == null || !current.getWorkTree().equals(repo.getWorkTree().toPath())) {
+			current = StatusCache.load(repo, exclusions);
+			statusCache = current;
+		}
+		return current;
+	}
+
+	/** Loads the conflicts left pending by a previous cycle, or run. */
+	private PendingConflicts getPendingConflicts(final Repository repo) {
+		var current = pendingConflicts;
+		if (current == null || !current.getWorkTree().equals(repo.getWorkTree().toPath())) {
+			current = PendingConflicts.load(repo);
+			pendingConflicts = current;
+		}
+		return current;
+	}
+
+	/**
+	 * @return the provider of this repository, built once and reused until the
+	 *         credentials are refused
+	 */
+	private Optional<CredentialsProvider> getCredentialsProvider() {
+		var current = credentialsProvider;
+		if (current == null) {
+			current = service.getCredentialsProvider().orElse(null);
+			credentialsProvider = current;
+		}
+		return Optional.ofNullable(current);
+	}
+
+	void requestSync() {
+		if (stopped || !syncRequested.compareAndSet(false, true)) {
+			return; // already queued
+		}
+		submit();
+	}
+
+	private void submit() {
+		try {
+			workers.execute(this::runRequested);
+		}
+		catch (final RejectedExecutionException e) {
+			// stopping
+		}
+	}
+
+	private void runRequested() {
+		if (!syncInProgress.compareAndSet(false, true)) {
+			return; // the running cycle resubmits when done
+		}
+		try {
+			syncRequested.set(false);
+			syncGuarded();
+		}
+		catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			syncInProgress.set(false);
+		}
+		if (syncRequested.get() && !stopped) {
+			submit(); // requested while running
+		}
+	}
+
+	private void syncGuarded() throws IOException {
+		if (getCredentialsProvider().isEmpty() || service.getClientId().isEmpty()) {
+			System.out.println("Please check configuration!");
+			return;
+		}
+
+		syncSafely();
+	}
+
+	private void syncSafely() {
+		state.set(SyncState.SYNCING);
+		try {
+			sync();
+		}
+		catch (final Exception e) {
+			if (RemoteConnection.isNetworkFailure(e) || e instanceof LargeFileStore.SharedStoreException) { // the shared store is a remote too
+				goOffline(e);
+				return;
+			}
+			if (RemoteConnection.isAuthenticationFailure(e)) {
+				onAuthenticationFailure(e);
+				return;
+			}
+			localChanges.set(true);
+			dirtyPaths.invalidate(); // the drained paths may not have been committed
+			log("Sync stopped: " + e);
+			onSyncFailure(e);
+			stop();
+		}
+		finally {
+			if (state.get() == SyncState.SYNCING) {
+				state.set(SyncState.IDLE);
+			}
+		}
+	}
+
+	private void sync() throws Exception {
+		final boolean requested = syncNowRequested.getAndSet(false);
+		final boolean reconnecting = offline.get() || authenticationFailed.get();
+		final boolean remoteAllowed = !reconnecting || requested || reconnectBackoff.isDue();
+		if (remoteUrl.isPresent() && RepositoryCloner.isCloneRequired(Path.of(configuredPath))) {
+			if (!remoteAllowed) {
+				return;
+			}
+			cloneRepository(remoteUrl.get());
+		}
+		try (final var handle = repositories.open(configuredPath)) {
+			final var git = handle.git();
+			final var repo = git.getRepository();
+			if (largeFilesConfigured.compareAndSet(false, true)) {
+				configureLargeFiles(repo);
+			}
+			final var pending = getPendingConflicts(repo);
+			resolvePendingConflicts(git, pending);
+			askAboutPendingConflicts(pending);
+
+			abortRebaseIfAny(git); // interrupted
+			final boolean merged = recoverIfMerging(git, repo);
+			final boolean committed = isStagingRequired() && commitLocalChanges(git);
+
+			if (merged || committed) {
+				schedulePush();
+			}
+
+			if (!remoteAllowed) {
+				return; // offline: the commits are queued locally
+			}
+			final var restored = LargeFileStore.restoreMissing(repo); // may need the shared store
+			if (!restored.isEmpty()) {
+				log("Restored " + restored.size() + " large files.");
+			}
+			final boolean pushDue = pushRequired.get() && (requested || reconnecting || System.nanoTime() - pushPendingSince.get() >= getPushWindow().toNanos());
+			if (requested || reconnecting || pushDue || pullBackoff.isDue()) { // integrate the remote changes before pushing
+				final boolean pulled = isRemoteAhead(git) && pullRemoteChanges(git);
+				schedulePull(pullBackoff.pulled(pulled));
+			}
+			if (pushDue) {
+				pushPendingChanges(git);
+			}
+			if (reconnecting) {
+				goOnline();
+			}
+		}
+	}
+
+	/**
+	 * Keeps committing locally while the remote cannot be reached, trying to
+	 * reach it again with an exponential backoff. The pending push and pull
+	 * are performed together as soon as it is back.
+	 */
+	private void goOffline(final Exception e) {
+		if (offline.compareAndSet(false, true)) {
+			log("Remote unreachable, working offline: " + e.getMessage());
+		}
+		final var delay = reconnectBackoff.pulled(false); // doubled by every failed attempt
+		log("Next attempt in " + delay.toSeconds() + " seconds.");
+		schedulePull(delay);
+	}
+
+	/**
+	 * Keeps committing locally, like when offline, but reports every failed
+	 * attempt, since only the user can fix the credentials. The attempts are
+	 * spaced by the same backoff, so as not to get the account locked out.
+	 */
+	private void onAuthenticationFailure(final Exception e) {
+		authenticationFailed.set(true);
+		credentialsProvider = null; // cleared by JGit, and maybe changed by the user
+		final var delay = reconnectBackoff.pulled(false);
+		log("Authentication failed, check the credentials: " + e.getMessage());
+		log("Next attempt in " + delay.toSeconds() + " seconds.");
+		schedulePull(delay);
+	}
+
+	private void goOnline() {
+		if (offline.compareAndSet(true, false)) {
+			log("Back online.");
+		}
+		if (authenticationFailed.compareAndSet(true, false)) {
+			log("Authenticated.");
+		}
+		reconnectBackoff.reset();
+	}
+
+	/**
+	 * Tells whether the work tree has to be staged in this cycle. When file
+	 * system events are available, this happens only if something changed or
+	 * if the periodic rescan (a safety net against lost events) is due; never
+	 * while a burst of changes is still in progress.
+	 */
+	private boolean isStagingRequired() {
+		final var now = System.currentTimeMillis();
+		if (watcher == null || (now - lastRescan.get() >= rescanInterval.toMillis() && !localChangesDebouncer.isPending())) {
+			lastRescan.set(now);
+			localChanges.set(false);
+			dirtyPaths.invalidate(); // full walk
+			return true;
+		}
+		return localChanges.getAndSet(false);
+	}
+
+	private void cloneRepository(final String uri) throws Exception {
+		log("Cloning '" + uri + "'...");
+		final var depth = configuration.getInt(Preference.SYNC_CLONE_DEPTH, Defaults.SYNC_CLONE_DEPTH);
+		final var sinceDays = configuration.getInt(Preference.SYNC_CLONE_SINCE_DAYS, Defaults.SYNC_CLONE_SINCE_DAYS);
+		final var progressMonitor = new ConsoleProgressMonitor(this::log, () -> stopped || Thread.currentThread().isInterrupted());
+		final var cloner = new RepositoryCloner(Path.of(configuredPath), uri, getCredentialsProvider().orElseThrow(), service.getTransportConfigCallback(), this::configureLargeFiles, progressMonitor, depth, sinceDays > 0 ? Optional.of(Instant.now().minus(Duration.ofDays(sinceDays))) : Optional.empty());
+		final var branch = cloner.call();
+		log(branch.map(name -> "Cloned, branch '" + name + "' checked out.").orElse("Cloned an empty repository."));
+	}
+
+	/** Applies the large file settings, which take effect on the next staging and checkout. */
+	private void configureLargeFiles(final Repository repo) throws IOException {
+		final long threshold = configuration.getInt(Preference.SYNC_LARGE_FILE_THRESHOLD, Defaults.SYNC_LARGE_FILE_THRESHOLD) * 1024L * 1024;
+		final var sharedStore = configuration.getString(Preference.SYNC_LARGE_FILE_STORE, "");
+		LargeFileStore.configure(repo, threshold, sharedStore.isBlank() ? Optional.empty() : Optional.of(Path.of(sharedStore.trim())));
+	}
+
+	private IntegrationMode getIntegrationMode() {
+		try {
+			return IntegrationMode.valueOf(configuration.getString(Preference.SYNC_INTEGRATION, Defaults.SYNC_INTEGRATION));
+		}
+		catch (final IllegalArgumentException e) {
+			return IntegrationMode.valueOf(Defaults.SYNC_INTEGRATION);
+		}
+	}
+
+	/** @return {@code true} if {@code HEAD} is a strict ancestor of the given commit */
+	private static boolean isFastForward(final Repository repo, final ObjectId target) throws IOException {
+		final var head = repo.resolve(Constants.HEAD);
+		if (head == null || head.equals(target)) {
+			return false;
+		}
+		try (final var walk = new RevWalk(repo)) {
+			return walk.isMergedInto(walk.parseCommit(head), walk.parseCommit(target));
+		}
+	}
+
+	/**
+	 * @return the upstream branch, or the branch with the same name on the
+	 *         default remote if no upstream is configured yet (e.g. after
+	 *         cloning an empty repository); nothing if neither exists yet
+	 */
+	private static Optional<Ref> getTrackingRef(final Repository repo) throws IOException {
+		final var trackingBranch = new BranchConfig(repo.getConfig(), repo.getBranch()).getRemoteTrackingBranch();
+		return Optional.ofNullable(repo.exactRef(trackingBranch == null ? Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + '/' + repo.getBranch() : trackingBranch));
+	}
+
+	/** Leaves a rebase that could not be completed, restoring the local commits. */
+	private boolean abortRebaseIfAny(final Git git) throws GitAPIException {
+		if (!git.getRepository().getRepositoryState().isRebasing()) {
+			return false;
+		}
+		git.rebase().setOperation(RebaseCommand.Operation.ABORT).call();
+		log("Rebase aborted.");
+		return true;
+	}
+
+	private boolean recoverIfMerging(final Git git, final Repository repo) throws Exception {
+		if (repo.getRepositoryState() != RepositoryState.MERGING) {
+			return false;
+		}
+
+		log("Interrupted merge detected");
+
+		resolveConflictsIfAny(git);
+
+		git.commit().setMessage(service.buildMessage()).call();
+		log("Merged.");
+		schedulePush();
+		return true;
+	}
+
+	private boolean commitLocalChanges(final Git git) throws GitAPIException, IOException {
+		final var repo = git.getRepository();
+		final var cache = getStatusCache(repo);
+		final var scan = cache.scan(repo.readDirCache(), dirtyPaths.drain());
+		final var paths = scan.getPaths();
+		if (paths.isEmpty()) {
+			logSkipped();
+			return false;
+		}
+
+		final var stager = new ParallelStager(git, exclusions);
+		final var diff = new IndexDiff(repo, Constants.HEAD, new FileTreeIterator(repo)); // same as git status, without the excluded paths
+		if (paths.size() > dirtyPathJournalCapacity) {
+			stager.stageAll(); // cheaper than a huge path filter, e.g. on the very first scan
+			diff.setFilter(exclusions.newTreeFilter());
+		}
+		else {
+			stager.stagePaths(paths);
+			diff.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), exclusions.newTreeFilter()));
+		}
+		diff.diff();
+		logSkipped();
+
+		final var status = new Status(diff);
+		log("Status...");
+		if (status.isClean()) {
+			log("Clean.");
+			cache.update(scan, repo.readDirCache());
+			return false;
+		}
+
+		status.getAdded().forEach(e -> log("Added '" + e + "'."));
+		status.getChanged().forEach(e -> log("Changed '" + e + "'."));
+		status.getConflicting().forEach(e -> log("Conflicting '" + e + "'."));
+		status.getMissing().forEach(e -> log("Missing '" + e + "'."));
+		status.getModified().forEach(e -> log("Modified '" + e + "'."));
+		status.getRemoved().forEach(e -> log("Removed '" + e + "'."));
+		status.getUntracked().forEach(e -> log("Untracked '" + e + "'."));
+
+		git.commit().setMessage(service.buildMessage()).call();
+		log("Committed.");
+		cache.update(scan, repo.readDirCache());
+		return true;
+	}
+
+	private void logSkipped() {
+		for (final var skipped : exclusions.drainSkipped()) {
+			log("Excluded " + skipped.paths() + " paths (" + skipped.bytes() + " bytes) by rule '" + skipped.rule() + "'.");
+		}
+	}
+
+	/**
+	 * Asks the remote for the tip of the upstream branch only, like
+	 * {@code git ls-remote}, which is much cheaper than a fetch negotiation.
+	 * The connection is then reused by the fetch and the push, if any.
+	 *
+	 * @return {@code true} unless the remote tip is the same as the local
+	 *         tracking ref and is already merged into {@code HEAD}
+	 */
+	private boolean isRemoteAhead(final Git git) throws IOException {
+		final var repo = git.getRepository();
+		final var branchConfig = new BranchConfig(repo.getConfig(), repo.getBranch());
+		final var remote = branchConfig.getRemote();
+		final var merge = branchConfig.getMerge();
+		final var trackingBranch = branchConfig.getRemoteTrackingBranch();
+		if (remote == null || merge == null || trackingBranch == null) {
+			return true; // no upstream yet: let the fetch find out
+		}
+
+		final var remoteTip = connection.call(repo, remote, getCredentialsProvider().orElseThrow(), transport -> {
+			try (final var fetch = transport.openFetch(List.of(), merge)) { // protocol v2 advertises the matching refs only
+				return fetch.getRef(merge);
+			}
+		});
+		final var tracking = repo.exactRef(trackingBranch);
+		final var head = repo.resolve(Constants.HEAD);
+		if (remoteTip == null || tracking == null || head == null || !remoteTip.getObjectId().equals(tracking.getObjectId())) {
+			return true;
+		}
+		try (final var walk = new RevWalk(repo)) {
+			return !walk.isMergedInto(walk.parseCommit(tracking.getObjectId()), walk.parseCommit(head));
+		}
+	}
+
+	/** @return {@code true} if new commits were pulled */
+	private boolean pullRemoteChanges(final Git git) throws Exception {
+		final var repo = git.getRepository();
+		final var remote = new BranchConfig(repo.getConfig(), repo.getBranch()).getRemote();
+		connection.call(repo, remote == null ? Constants.DEFAULT_REMOTE_NAME : remote, getCredentialsProvider().orElseThrow(), transport -> transport.fetch(NullProgressMonitor.INSTANCE, null)); // configured refspecs
+		log("Fetched.");
+
+		final var trackingRef = getTrackingRef(repo);
+		if (trackingRef.isEmpty()) {
+			return false; // nothing published yet
+		}
+		final var tracking = trackingRef.get();
+		if (isFastForward(repo, tracking.getObjectId()) && new ParallelCheckout(repo).fastForward(tracking.getObjectId())) {
+			log("Fast-forwarded.");
+			return true;
+		}
+
+		if (getIntegrationMode() == IntegrationMode.REBASE) {
+			final var rebase = git.rebase().setUpstream(tracking.getObjectId()).call();
+			if (rebase.getStatus().isSuccessful()) {
+				return rebase.getStatus() != RebaseResult.Status.UP_TO_DATE;
+			}
+			log("Cannot rebase (" + rebase.getStatus() + "), merging instead.");
+			abortRebaseIfAny(git);
+		}
+		final var merge = git.merge().include(tracking).setStrategy(MergeStrategy.RECURSIVE).call();
+		if (merge.getMergeStatus() == MergeStatus.FAILED) { // nothing changed
+			final var failing = merge.getFailingPaths() == null ? Set.<String> of() : merge.getFailingPaths().keySet();
+			log("Cannot merge, uncommitted changes in the way" + (failing.isEmpty() ? "." : ": " + failing + '.'));
+			return false;
+		}
+
+		if (merge.getMergeStatus() == MergeStatus.CONFLICTING) {
+
+			resolveConflictsIfAny(git);
+
+			git.commit().setMessage(service.buildMessage()).call();
+			log("Merged.");
+			schedulePush();
+		}
+		if (merge.getMergeStatus() == MergeStatus.MERGED) {
+			schedulePush(); // the merge commit has to be published too
+		}
+		return merge.getMergeStatus() != MergeStatus.ALREADY_UP_TO_DATE;
+	}
+
+	/**
+	 * Records that there are local commits to publish. They are pushed
+	 * together, in a single transport session, once the push window has
+	 * elapsed since the first of them.
+	 */
+	private void schedulePush() {
+		if (!pushRequired.compareAndSet(false, true)) {
+			return; // already pending
+		}
+		pushPendingSince.set(System.nanoTime());
+		final var window = getPushWindow();
+		if (!window.isZero()) {
+			cancel(pushTimer);
+			try {
+				pushTimer = scheduler.schedule(this::requestSync, window.toMillis(), TimeUnit.MILLISECONDS);
+			}
+			catch (final RejectedExecutionException e) {
+				// stopping
+			}
+		}
+	}
+
+	private Duration getPushWindow() {
+		return Duration.ofSeconds(configuration.getInt(Preference.SYNC_PUSH_WINDOW, Defaults.SYNC_PUSH_WINDOW));
+	}
+
+	/** Stages, pulls and pushes pending commits right away, regardless of the intervals and windows. */
+	void syncNow() {
+		syncNowRequested.set(true);
+		localChanges.set(true);
+		requestSync();
+	}
+
+	/**
+	 * Pushes the pending commits right away, waiting for the running cycle to
+	 * end if needed. Meant to be called before stopping.
+	 */
+	void flush() {
+		if (stopped || offline.get() || !pushRequired.get()) {
+			return; // while offline, the commits stay queued locally
+		}
+		try {
+			while (!syncInProgress.compareAndSet(false, true)) {
+				TimeUnit.MILLISECONDS.sleep(100);
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try (final var handle = repositories.open(configuredPath)) {
+			if (state.get() == SyncState.IDLE && pushRequired.get()) {
+				pushPendingChanges(handle.git());
+			}
+		}
+		catch (final IOException e) {
+			onSyncFailure(e);
+		}
+		finally {
+			syncInProgress.set(false);
+		}
+	}
+
+	/** Wakes the engine up when the next pull is due, regardless of local activity. */
+	private void schedulePull(final Duration delay) {
+		cancel(pullTimer);
+		try {
+			pullTimer = scheduler.schedule(this::requestSync, delay.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (final RejectedExecutionException e) {
+			// stopping
+		}
+	}
+
+	/**
+	 * Merges the configured text file types line by line, then resolves the
+	 * conflicts left that match a rule. The others, if any, are left pending:
+	 * THEIRS is committed and checked out, so that the merge can be pushed
+	 * without changing them for the other clients and the work tree stays
+	 * clean for the next integrations, while the user is asked about them by
+	 * the next cycles.
+	 */
+	private void resolveConflictsIfAny(final Git git) throws Exception {
+		final var resolver = new ConflictResolver(git.getRepository());
+		if (!textMergeExtensions.isEmpty()) {
+			resolver.mergeText(this::isTextMergeEligible).forEach(path -> log("Merged '" + path + "' line by line."));
+		}
+		final Map<String, ConflictChoice> automatic = new TreeMap<>();
+		final List<ConflictResolver.Conflict> conflicts = new ArrayList<>();
+		for (final var conflict : resolver.getConflicts()) {
+			conflictRules.match(conflict.path()).ifPresentOrElse(choice -> automatic.put(conflict.path(), choice), () -> conflicts.add(conflict));
+		}
+		if (!automatic.isEmpty()) {
+			final List<String> copies = new ArrayList<>();
+			resolver.resolve(automatic, original -> {
+				final var copy = getConflictingCopyPath(original);
+				copies.add(git.getRepository().getWorkTree().toPath().relativize(copy).toString().replace(File.separatorChar, '/'));
+				return copy;
+			});
+			automatic.forEach((path, choice) -> log("Resolved '" + path + "' as " + choice + "."));
+			new ParallelStager(git, exclusions).stagePaths(copies);
+		}
+		if (conflicts.isEmpty()) {
+			return;
+		}
+
+		final var pending = getPendingConflicts(git.getRepository());
+		pending.putAll(conflicts); // before the work tree is touched, so that OURS can always be restored
+		final Map<String, ConflictChoice> provisional = new TreeMap<>();
+		conflicts.forEach(conflict -> provisional.put(conflict.path(), ConflictChoice.THEIRS));
+		resolver.resolve(provisional, UnaryOperator.identity()); // no copies with THEIRS
+		log("Kept THEIRS for " + conflicts.size() + " conflicting paths until resolved, OURS can still be restored.");
+		nextConflictPrompt.set(0);
+		requestSync(); // asks the user
+	}
+
+	private boolean isTextMergeEligible(final String path) {
+		final var name = path.substring(path.lastIndexOf('/') + 1);
+		final var dot = name.lastIndexOf('.');
+		return dot >= 0 && textMergeExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Applies the choices of the user to the pending conflicts, within the
+	 * cycle so that nothing else touches the work tree meanwhile. The paths
+	 * changed since they were deferred are asked again.
+	 */
+	private void resolvePendingConflicts(final Git git, final PendingConflicts pending) throws IOException {
+		if (conflictChoices.isEmpty()) {
+			return;
+		}
+		final Map<String, ConflictChoice> choices = new TreeMap<>();
+		for (final var path : List.copyOf(conflictChoices.keySet())) {
+			choices.put(path, conflictChoices.remove(path));
+		}
+		final var resolution = new ConflictResolver(git.getRepository()).resolvePending(pending.getConflicts(), choices, this::getConflictingCopyPath);
+		pending.removeAll(resolution.resolved());
+		pending.putAll(resolution.requeued());
+		resolution.resolved().forEach(path -> log("Resolved '" + path + "' as " + choices.get(path) + "."));
+		resolution.requeued().forEach(conflict -> log("'" + conflict.path() + "' changed since the conflict was detected, asking again."));
+		if (!resolution.changed().isEmpty()) {
+			resolution.changed().forEach(path -> dirtyPaths.add(Path.of(path)));
+			localChanges.set(true); // committed like any local change
+		}
+		if (!resolution.requeued().isEmpty()) {
+			nextConflictPrompt.set(0);
+		}
+	}
+
+	/**
+	 * Asks the user about the pending conflicts in the background, if there is
+	 * a user interface, otherwise logs them. Either way, this is repeated
+	 * periodically until they are resolved.
+	 */
+	private void askAboutPendingConflicts(final PendingConflicts pending) {
+		final var now = System.currentTimeMillis();
+		if (pending.isEmpty() || askingUser.get() || now < nextConflictPrompt.get()) {
+			return;
+		}
+		nextConflictPrompt.set(now + conflictPromptInterval.toMillis());
+		final var conflicts = pending.getConflicts();
+		final var shell = service.getShell();
+		if (shell.isPresent()) {
+			askingUser.set(true);
+			try {
+				shell.get().getDisplay().asyncExec(() -> askUser(shell.get(), conflicts));
+				return;
+			}
+			catch (final SWTException e) { // disposed meanwhile
+				askingUser.set(false);
+			}
+		}
+		log(conflicts.size() + " conflicting paths are pending, with no user interface to resolve them: " + pending.getPaths());
+	}
+
+	/** Runs on the UI thread; the choices are applied by the next cycle. */
+	private void askUser(final Shell shell, final List<ConflictResolver.Conflict> conflicts) {
+		try {
+			if (stopped || shell.isDisposed()) {
+				return;
+			}
+			final var choices = ConflictResolutionDialog.ask(shell, conflicts);
+			if (choices.isPresent()) {
+				conflictChoices.putAll(choices.get());
+				requestSync();
+			}
+			else {
+				nextConflictPrompt.set(System.currentTimeMillis() + conflictPromptInterval.toMillis());
+				log("Conflicts left pending, asking again in " + conflictPromptInterval.toMinutes() + " minutes.");
+			}
+		}
+		finally {
+			askingUser.set(false);
+		}
+	}
+
+	private Path getConflictingCopyPath(final Path original) {
+		OffsetDateTime lastModified;
+		try {
+			lastModified = OffsetDateTime.ofInstant(Files.getLastModifiedTime(original).toInstant(), ZoneId.systemDefault());
+		}
+		catch (final IOException e) {
+			lastModified = OffsetDateTime.now(); // deleted on our side
+		}
+		final var timestamp = lastModified.toString().replace('.', '-').replace(':', '-').replace('\\', '-').replace('/', '-');
+
+		String fileNameWithoutExtension;
+		String extension;
+		final var originalFileName = original.getFileName().toString();
+		final var lastDotIndex = originalFileName.lastIndexOf('.');
+		if (lastDotIndex != -1 && lastDotIndex != originalFileName.length() - 1) {
+			fileNameWithoutExtension = originalFileName.substring(0, lastDotIndex);
+			extension = originalFileName.substring(lastDotIndex);
+		}
+		else {
+			fileNameWithoutExtension = originalFileName;
+			extension = "";
+		}
+		return original.resolveSibling(fileNameWithoutExtension + " (conflicted copy of " + service.getClientId().orElseThrow() + " on " + timestamp + ')' + extension);
+	}
+
+	private void onSyncFailure(final Exception e) {
+		e.printStackTrace();
+	}
+
+	/**
+	 * Pushes the local commits; they stay pending if the remote cannot be
+	 * reached or rejects them, and a rejection makes the next cycle pull
+	 * first, e.g. to integrate the commits that made the push non-fast-forward.
+	 */
+	private void pushPendingChanges(final Git git) throws IOException {
+		pushRequired.set(false);
+		final boolean pushed;
+		try {
+			pushed = pushChanges(git);
+		}
+		catch (final IOException e) {
+			pushRequired.set(true);
+			throw e;
+		}
+		if (!pushed) {
+			pushRequired.set(true);
+			pullBackoff.reset();
+		}
+	}
+
+	/**
+	 * Pushes the current branch to its upstream branch, like {@code git push}
+	 * with {@code push.default=simple}.
+	 *
+	 * @return {@code false} if the remote rejected the update
+	 */
+	private boolean pushChanges(final Git git) throws IOException {
+		final var repo = git.getRepository();
+		final var published = LargeFileStore.publish(repo); // before the pointers reach the other clients
+		if (published > 0) {
+			log("Published " + published + " large files.");
+		}
+		final var branch = repo.getBranch();
+		final var branchConfig = new BranchConfig(repo.getConfig(), branch);
+		final var remote = branchConfig.getRemote() == null ? Constants.DEFAULT_REMOTE_NAME : branchConfig.getRemote();
+		final var spec = new RefSpec(Constants.R_HEADS + branch + ':' + (branchConfig.getMerge() == null ? Constants.R_HEADS + branch : branchConfig.getMerge()));
+		final var result = connection.call(repo, remote, getCredentialsProvider().orElseThrow(), transport -> transport.push(NullProgressMonitor.INSTANCE, transport.findRemoteRefUpdatesFor(List.of(spec))));
+		boolean rejected = false;
+		for (final var update : result.getRemoteUpdates()) {
+			if (update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+				log("Cannot push " + update.getRemoteName() + " (" + update.getStatus() + (update.getMessage() == null ? "" : ": " + update.getMessage()) + ").");
+				rejected = true;
+			}
+		}
+		if (rejected) {
+			return false;
+		}
+		log("Pushed.");
+		if (branchConfig.getMerge() == null) {
+			setUpstream(repo, remote, branch);
+		}
+		return true;
+	}
+
+	/** Tracks the branch just pushed, like {@code git push -u}, so that the next pulls integrate it. */
+	private void setUpstream(final Repository repo, final String remote, final String branch) throws IOException {
+		final var config = repo.getConfig();
+		config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_REMOTE, remote);
+		config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_MERGE, Constants.R_HEADS + branch);
+		config.save();
+		log("Tracking " + remote + '/' + branch + '.');
+	}
+
+	private void log(final Object message) {
+		GitSyncService.log(logPrefix + message);
+	}
+
+}
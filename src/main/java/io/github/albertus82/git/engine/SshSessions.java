@@ -0,0 +1,53 @@
+package io.github.albertus82.git.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.transport.SshTransport;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.sshd.JGitKeyCache;
+import org.eclipse.jgit.transport.sshd.SshdSessionFactory;
+import org.eclipse.jgit.transport.sshd.SshdSessionFactoryBuilder;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Sets up the SSH transport on top of Apache MINA sshd. A single session
+ * factory, thus a single SSH client and key cache, is shared by all the
+ * repositories: private keys are read, and decrypted with the configured
+ * password if needed, only once. The usual {@code ~/.ssh} identities,
+ * {@code known_hosts} and {@code config} files are honored, unless a private
+ * key is configured explicitly.
+ * <p>
+ * Sessions are not shared here: each one lives as long as the transport that
+ * opened it, see {@link RemoteConnection}.
+ */
+class SshSessions implements TransportConfigCallback, Closeable {
+
+	private final SshdSessionFactory factory;
+
+	/** @param privateKey the key to authenticate with, instead of the default identities */
+	SshSessions(final Optional<Path> privateKey) {
+		final var home = FS.DETECTED.userHome();
+		final var builder = new SshdSessionFactoryBuilder().setHomeDirectory(home).setSshDirectory(new File(home, ".ssh"));
+		privateKey.ifPresent(key -> builder.setDefaultIdentities(sshDir -> List.of(key)));
+		this.factory = builder.build(new JGitKeyCache());
+	}
+
+	@Override
+	public void configure(final Transport transport) {
+		if (transport instanceof SshTransport ssh) {
+			ssh.setSshSessionFactory(factory);
+		}
+	}
+
+	/** Closes the SSH client; the sessions still open are closed too. */
+	@Override
+	public void close() {
+		factory.close();
+	}
+
+}
@@ -0,0 +1,363 @@
+package io.github.albertus82.git.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persistent, fsmonitor-like cache of the stat data (size, modification time
+ * and file key) last seen for every work tree file, together with the object
+ * id the file was staged as. Scanning the work tree against this cache yields
+ * the paths that really changed, so that JGit only has to restat and rehash
+ * those. Entries recorded too close to the modification time of their file
+ * are racily clean and are never trusted.
+ */
+@Slf4j
+class StatusCache {
+
+	static final String DIRECTORY_NAME = "auto-sync";
+
+	private static final String FILE_NAME = "status-cache";
+	private static final int MAGIC = 0x47415343; // GASC
+	private static final int VERSION = 1;
+	private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long SAVE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private record Entry(long size, long lastModified, String fileKey, boolean racy, ObjectId objectId) {
+
+		private boolean hasSameStat(final Entry other) {
+			return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+		}
+
+		private Entry withObjectId(final ObjectId id) {
+			return new Entry(size, lastModified, fileKey, racy, id);
+		}
+
+	}
+
+	/** Outcome of a scan: the changed paths, mapped to their fresh stat data ({@code null} if gone). */
+	static class Scan {
+
+		private final Map<String, Entry> changed = new TreeMap<>();
+
+		Set<String> getPaths() {
+			return changed.keySet();
+		}
+
+	}
+
+	private final Path workTree;
+	private final Path file;
+	private final WorkTreeExclusions exclusions;
+	private final List<Path> ignoreFiles; // outside the work tree
+	private final NavigableMap<String, Entry> entries = new TreeMap<>();
+
+	private boolean dirty;
+	private long lastSave;
+	private String ignoreFilesStamp;
+
+	private StatusCache(final Path workTree, final Path file, final WorkTreeExclusions exclusions, final List<Path> ignoreFiles) {
+		this.workTree = workTree;
+		this.file = file;
+		this.exclusions = exclusions;
+		this.ignoreFiles = ignoreFiles;
+	}
+
+	static StatusCache load(final Repository repository, final WorkTreeExclusions exclusions) {
+		final List<Path> ignoreFiles = new ArrayList<>();
+		ignoreFiles.add(repository.getDirectory().toPath().resolve(Constants.INFO_EXCLUDE));
+		final var excludesFile = repository.getConfig().get(CoreConfig.KEY).getExcludesFile();
+		if (excludesFile != null) { // resolved like JGit does
+			final var fs = repository.getFS();
+			ignoreFiles.add((excludesFile.startsWith("~/") ? fs.resolve(fs.userHome(), excludesFile.substring(2)) : fs.resolve(null, excludesFile)).toPath());
+		}
+		final var cache = new StatusCache(repository.getWorkTree().toPath(), repository.getDirectory().toPath().resolve(DIRECTORY_NAME).resolve(FILE_NAME), exclusions, ignoreFiles);
+		if (Files.exists(cache.file)) {
+			try {
+				cache.read();
+			}
+			catch (final IOException | RuntimeException e) {
+				log.warn("Discarding unreadable status cache {}:", cache.file, e);
+				cache.entries.clear();
+			}
+		}
+		return cache;
+	}
+
+	Path getWorkTree() {
+		return workTree;
+	}
+
+	/**
+	 * Compares the work tree with the cache. Excluded paths are skipped, and
+	 * never reported as gone.
+	 * <p>
+	 * Untracked files are cached too, so that ignored files are not reported
+	 * again and again; whenever an ignore file changes, e.g. a
+	 * {@code .gitignore}, {@code info/exclude} or {@code core.excludesFile},
+	 * they are dropped and the whole work tree is walked, so that the files
+	 * no longer ignored are reported.
+	 *
+	 * @param index the current index
+	 * @param scope the paths to check, or an empty {@code Optional} to walk the
+	 *        whole work tree
+	 */
+	synchronized Scan scan(final DirCache index, final Optional<? extends Collection<String>> scope) throws IOException {
+		final var stamp = getIgnoreFilesStamp();
+		if (!stamp.equals(ignoreFilesStamp)) { // also unknown after loading
+			ignoreFilesStamp = stamp;
+			return rescanUntracked(index);
+		}
+		final var scan = compare(index, scope);
+		if (scan.changed.keySet().stream().anyMatch(StatusCache::isIgnoreFile)) {
+			return rescanUntracked(index);
+		}
+		return scan;
+	}
+
+	private Scan rescanUntracked(final DirCache index) throws IOException {
+		if (entries.values().removeIf(entry -> ObjectId.zeroId().equals(entry.objectId()))) {
+			dirty = true;
+		}
+		return compare(index, Optional.empty());
+	}
+
+	private static boolean isIgnoreFile(final String path) {
+		return path.equals(Constants.DOT_GIT_IGNORE) || path.endsWith('/' + Constants.DOT_GIT_IGNORE);
+	}
+
+	/** @return the stat data of the ignore files outside the work tree */
+	private String getIgnoreFilesStamp() throws IOException {
+		final var sb = new StringBuilder();
+		for (final var ignoreFile : ignoreFiles) {
+			try {
+				final var attrs = Files.readAttributes(ignoreFile, BasicFileAttributes.class);
+				sb.append(attrs.size()).append(':').append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append(':').append(attrs.fileKey());
+			}
+			catch (final NoSuchFileException e) {
+				sb.append('-');
+			}
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	private Scan compare(final DirCache index, final Optional<? extends Collection<String>> scope) throws IOException {
+		final var scan = new Scan();
+		final var scanTime = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+		final Set<String> seen = new HashSet<>();
+
+		if (scope.isEmpty()) {
+			walk(workTree, index, scan, scanTime, seen);
+			entries.keySet().stream().filter(path -> !seen.contains(path) && !exclusions.isWithinExcludedDirectory(path)).forEach(path -> scan.changed.put(path, null));
+			for (int i = 0; i < index.getEntryCount(); i++) {
+				final var path = index.getEntry(i).getPathString();
+				if (!seen.contains(path) && !exclusions.isWithinExcludedDirectory(path)) {
+					scan.changed.put(path, null);
+				}
+			}
+		}
+		else {
+			for (final var path : scope.get()) {
+				if (exclusions.isWithinExcludedDirectory(path)) {
+					continue;
+				}
+				final var target = workTree.resolve(path);
+				BasicFileAttributes attrs = null;
+				try {
+					attrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				}
+				catch (final NoSuchFileException e) {
+					// deleted
+				}
+				if (attrs != null && attrs.isDirectory()) {
+					if (exclusions.skipDirectory(path)) {
+						continue;
+					}
+					walk(target, index, scan, scanTime, seen);
+				}
+				else if (attrs != null) {
+					if (exclusions.skipFile(path, attrs.size())) {
+						continue;
+					}
+					check(path, attrs, index, scan, scanTime);
+					seen.add(path);
+				}
+				for (final var cached : entries.subMap(path + '/', path + '0').keySet()) {
+					if (!seen.contains(cached) && !exclusions.isWithinExcludedDirectory(cached)) {
+						scan.changed.put(cached, null);
+					}
+				}
+				for (final var indexed : index.getEntriesWithin(path)) {
+					if (!seen.contains(indexed.getPathString()) && !exclusions.isWithinExcludedDirectory(indexed.getPathString())) {
+						scan.changed.put(indexed.getPathString(), null);
+					}
+				}
+				if (!seen.contains(path) && (attrs == null || entries.containsKey(path) || index.getEntry(path) != null)) {
+					scan.changed.put(path, null); // gone, or replaced by a directory
+				}
+			}
+		}
+		return scan;
+	}
+
+	/**
+	 * Records the outcome of a successful sync cycle.
+	 *
+	 * @param scan the scan the cycle was based on
+	 * @param index the index after staging
+	 */
+	synchronized void update(final Scan scan, final DirCache index) {
+		for (final var e : scan.changed.entrySet()) {
+			if (e.getValue() == null) {
+				entries.remove(e.getKey());
+			}
+			else {
+				entries.put(e.getKey(), e.getValue().withObjectId(getIndexedId(index, e.getKey())));
+			}
+		}
+		dirty |= !scan.changed.isEmpty();
+		if (System.currentTimeMillis() - lastSave >= SAVE_INTERVAL_MILLIS) {
+			try {
+				save();
+			}
+			catch (final IOException e) {
+				log.warn("Cannot save status cache {}:", file, e);
+			}
+		}
+	}
+
+	synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		Files.createDirectories(file.getParent());
+		final var temp = file.resolveSibling(FILE_NAME + ".tmp");
+		try (final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (final var e : entries.entrySet()) {
+				final var entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.size());
+				out.writeLong(entry.lastModified());
+				out.writeUTF(entry.fileKey());
+				out.writeBoolean(entry.racy());
+				final var id = new byte[Constants.OBJECT_ID_LENGTH];
+				entry.objectId().copyRawTo(id, 0);
+				out.write(id);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+		lastSave = System.currentTimeMillis();
+	}
+
+	private void read() throws IOException {
+		try (final var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported status cache format");
+			}
+			final var count = in.readInt();
+			final var id = new byte[Constants.OBJECT_ID_LENGTH];
+			for (int i = 0; i < count; i++) {
+				final var path = in.readUTF();
+				final var size = in.readLong();
+				final var lastModified = in.readLong();
+				final var fileKey = in.readUTF();
+				final var racy = in.readBoolean();
+				in.readFully(id);
+				entries.put(path, new Entry(size, lastModified, fileKey, racy, ObjectId.fromRaw(id)));
+			}
+		}
+		lastSave = System.currentTimeMillis();
+	}
+
+	private void walk(final Path start, final DirCache index, final Scan scan, final long scanTime, final Set<String> seen) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+				if (Constants.DOT_GIT.equals(String.valueOf(dir.getFileName()))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return !dir.equals(start) && exclusions.skipDirectory(toRepositoryPath(dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+					final var path = toRepositoryPath(file);
+					if (!exclusions.skipFile(path, attrs.size())) {
+						check(path, attrs, index, scan, scanTime);
+					}
+					seen.add(path); // an excluded file is not gone
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+				log.debug("Cannot scan {}:", file, e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void check(final String path, final BasicFileAttributes attrs, final DirCache index, final Scan scan, final long scanTime) {
+		final var lastModified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+		final var observed = new Entry(attrs.size(), lastModified, String.valueOf(attrs.fileKey()), lastModified >= scanTime - RACY_WINDOW_NANOS, ObjectId.zeroId());
+		final var cached = entries.get(path);
+		if (cached == null || cached.racy() || !cached.hasSameStat(observed) || !cached.objectId().equals(getIndexedId(index, path))) {
+			scan.changed.put(path, observed);
+		}
+	}
+
+	private String toRepositoryPath(final Path file) {
+		final var relative = workTree.relativize(file);
+		final var sb = new StringBuilder();
+		for (final var name : relative) {
+			if (!sb.isEmpty()) {
+				sb.append('/');
+			}
+			sb.append(name);
+		}
+		return sb.toString();
+	}
+
+	/** @return the stage 0 object id of the path, or the zero id if not tracked or conflicting */
+	private static ObjectId getIndexedId(final DirCache index, final String path) {
+		final DirCacheEntry entry = index.getEntry(path);
+		return entry == null || entry.getStage() != DirCacheEntry.STAGE_0 ? ObjectId.zeroId() : entry.getObjectId();
+	}
+
+}
@@ -3,7 +3,6 @@ package io.github.albertus82.git.engine;
 enum SyncState {
 
 	IDLE,
-	SYNCING,
-	WAITING_FOR_USER
+	SYNCING
 
 }
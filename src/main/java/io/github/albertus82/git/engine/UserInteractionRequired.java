@@ -1,7 +0,0 @@
-package io.github.albertus82.git.engine;
-
-public final class UserInteractionRequired extends RuntimeException {
-
-	private static final long serialVersionUID = 1711759993366423239L;
-
-}
@@ -0,0 +1,153 @@
+package io.github.albertus82.git.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.jgit.ignore.FastIgnoreRule;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Engine-level exclusion rules: directories matching a pattern (same syntax
+ * as {@code .gitignore}, e.g. {@code node_modules} or {@code /build/}) are
+ * pruned before any walk descends into them, and files larger than the
+ * maximum size are never read. Unlike ignored paths, excluded paths are left
+ * alone even when tracked: they are neither updated nor removed from the
+ * index.
+ * <p>
+ * The paths and bytes skipped by each rule are counted until the next
+ * {@link #drainSkipped()}, each path once. A pruned directory counts as a
+ * single path with no bytes, since it is never walked.
+ */
+class WorkTreeExclusions {
+
+	/** What a rule skipped. */
+	record Skipped(String rule, int paths, long bytes) {}
+
+	private record Rule(String pattern, FastIgnoreRule matcher) {}
+
+	private final List<Rule> directoryRules = new ArrayList<>();
+	private final long maxFileSize;
+	private final Map<String, Skipped> skipped = new LinkedHashMap<>();
+	private final Set<String> skippedPaths = new HashSet<>();
+
+	/**
+	 * @param directoryPatterns the directories to prune
+	 * @param maxFileSize files larger than this number of bytes are skipped,
+	 *        or {@code 0} for no limit
+	 */
+	WorkTreeExclusions(final Collection<String> directoryPatterns, final long maxFileSize) {
+		for (final var pattern : directoryPatterns) {
+			if (!pattern.isBlank()) {
+				final var matcher = new FastIgnoreRule(pattern.trim());
+				if (!matcher.isEmpty() && !matcher.getNegation()) {
+					directoryRules.add(new Rule(pattern.trim(), matcher));
+				}
+			}
+		}
+		this.maxFileSize = maxFileSize;
+	}
+
+	boolean isEmpty() {
+		return directoryRules.isEmpty() && maxFileSize <= 0;
+	}
+
+	/** Checks a directory, without counting it. */
+	boolean isExcludedDirectory(final String path) {
+		return findDirectoryRule(path).isPresent();
+	}
+
+	/** Checks whether a path lies within an excluded directory, without counting it. */
+	boolean isWithinExcludedDirectory(final String path) {
+		for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+			if (isExcludedDirectory(path.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Checks a directory before descending into it. */
+	boolean skipDirectory(final String path) {
+		final var rule = findDirectoryRule(path);
+		rule.ifPresent(r -> count(r.pattern(), path, 0));
+		return rule.isPresent();
+	}
+
+	/** Checks a file before reading it. */
+	boolean skipFile(final String path, final long size) {
+		if (maxFileSize > 0 && size > maxFileSize) {
+			count("size > " + maxFileSize + " bytes", path, size);
+			return true;
+		}
+		return false;
+	}
+
+	/** @return what each rule skipped since the previous call */
+	synchronized List<Skipped> drainSkipped() {
+		final var result = List.copyOf(skipped.values());
+		skipped.clear();
+		skippedPaths.clear();
+		return result;
+	}
+
+	/**
+	 * Creates a filter that prunes the excluded directories of a walk, with
+	 * their tracked content, and the oversized files of its work tree
+	 * iterator.
+	 */
+	TreeFilter newTreeFilter() {
+		return isEmpty() ? TreeFilter.ALL : new ExclusionFilter();
+	}
+
+	private Optional<Rule> findDirectoryRule(final String path) {
+		return directoryRules.stream().filter(rule -> rule.matcher().isMatch(path, true)).findFirst();
+	}
+
+	private synchronized void count(final String rule, final String path, final long bytes) {
+		if (skippedPaths.add(path)) {
+			skipped.merge(rule, new Skipped(rule, 1, bytes), (a, b) -> new Skipped(rule, a.paths() + b.paths(), a.bytes() + b.bytes()));
+		}
+	}
+
+	private class ExclusionFilter extends TreeFilter {
+
+		@Override
+		public boolean include(final TreeWalk walker) {
+			if (walker.isSubtree()) {
+				return !skipDirectory(walker.getPathString()); // tracked content included
+			}
+			for (int i = 0; i < walker.getTreeCount(); i++) {
+				if (walker.getTree(i, AbstractTreeIterator.class) instanceof WorkingTreeIterator file) {
+					return !skipFile(walker.getPathString(), file.getEntryLength());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this; // stateless
+		}
+
+		@Override
+		public String toString() {
+			return "EXCLUDED";
+		}
+
+	}
+
+}
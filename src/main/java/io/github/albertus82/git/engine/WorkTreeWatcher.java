@@ -0,0 +1,145 @@
+package io.github.albertus82.git.engine;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Constants;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Recursively watches a work tree for changes and notifies a {@link Listener}
+ * for every created, modified or deleted path. The {@code .git} directory and
+ * the excluded directories are never watched.
+ */
+@Slf4j
+class WorkTreeWatcher implements Closeable {
+
+	interface Listener {
+
+		/** @param path the changed path, relative to the work tree */
+		void changed(Path path);
+
+		/** Some events were lost: the whole work tree must be rescanned. */
+		void overflowed();
+
+	}
+
+	private final Path workTree;
+	private final Listener listener;
+	private final WorkTreeExclusions exclusions;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+	private final Thread thread;
+
+	WorkTreeWatcher(final Path workTree, final Listener listener, final WorkTreeExclusions exclusions) throws IOException {
+		this.workTree = workTree;
+		this.listener = listener;
+		this.exclusions = exclusions;
+		this.watchService = workTree.getFileSystem().newWatchService();
+		try {
+			registerAll(workTree);
+		}
+		catch (final IOException | RuntimeException e) {
+			watchService.close();
+			throw e;
+		}
+		thread = new Thread(this::processEvents, "WorkTreeWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close(); // wakes up the watcher thread
+	}
+
+	private void registerAll(final Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+				if (isGitDir(dir) || (!dir.equals(workTree) && exclusions.isExcludedDirectory(toRepositoryPath(dir)))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+				log.debug("Cannot watch {}:", file, e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void processEvents() {
+		while (true) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (final ClosedWatchServiceException e) {
+				return;
+			}
+
+			final var dir = keys.get(key);
+			if (dir != null) {
+				for (final var event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						listener.overflowed();
+						continue;
+					}
+					final var child = dir.resolve((Path) event.context());
+					if (isGitDir(child)) {
+						continue;
+					}
+					if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+						try {
+							registerAll(child);
+						}
+						catch (final IOException | ClosedWatchServiceException e) {
+							log.debug("Cannot watch {}:", child, e);
+							listener.overflowed();
+						}
+					}
+					listener.changed(workTree.relativize(child));
+				}
+			}
+
+			if (!key.reset()) {
+				keys.remove(key);
+			}
+		}
+	}
+
+	private String toRepositoryPath(final Path path) {
+		return workTree.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	private boolean isGitDir(final Path path) {
+		return path.getParent() != null && path.getParent().equals(workTree) && Constants.DOT_GIT.equals(path.getFileName().toString());
+	}
+
+}
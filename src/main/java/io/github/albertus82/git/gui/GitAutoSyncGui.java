@@ -79,6 +79,10 @@ public class GitAutoSyncGui extends ApplicationWindow implements Multilanguage {
 	@Getter
 	private StyledTextConsole console;
 
+	/** The running sync engine. May be null in some circumstances. */
+	@Getter
+	private GitSyncService service;
+
 	/** Shell maximized status. May be null in some circumstances. */
 	private Boolean shellMaximized;
 
@@ -166,7 +170,8 @@ public class GitAutoSyncGui extends ApplicationWindow implements Multilanguage {
 				}
 			});
 
-			service = new GitSyncService();
+			service = new GitSyncService(shell);
+			gui.service = service;
 			service.start();
 
 			loop(shell);
@@ -12,6 +12,7 @@ import io.github.albertus82.git.gui.listener.AboutListener;
 import io.github.albertus82.git.gui.listener.ArmMenuListener;
 import io.github.albertus82.git.gui.listener.ExitListener;
 import io.github.albertus82.git.gui.listener.PreferencesListener;
+import io.github.albertus82.git.gui.listener.SyncNowListener;
 import io.github.albertus82.git.resources.Messages;
 import io.github.albertus82.jface.Multilanguage;
 import io.github.albertus82.jface.cocoa.CocoaEnhancerException;
@@ -64,6 +65,9 @@ public class MenuBar implements Multilanguage {
 			final MenuItem fileMenuHeader = newLocalizedMenuItem(bar, SWT.CASCADE, "label.menu.header.file");
 			fileMenuHeader.setMenu(fileMenu);
 
+			final MenuItem fileSyncNowItem = newLocalizedMenuItem(fileMenu, SWT.PUSH, "label.menu.item.sync.now");
+			fileSyncNowItem.addSelectionListener(new SyncNowListener(gui));
+
 			final MenuItem toolsPreferencesMenuItem = newLocalizedMenuItem(fileMenu, SWT.PUSH, "label.menu.item.preferences");
 			toolsPreferencesMenuItem.addSelectionListener(new PreferencesListener(gui));
 
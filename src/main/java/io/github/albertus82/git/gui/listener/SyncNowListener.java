@@ -0,0 +1,24 @@
+package io.github.albertus82.git.gui.listener;
+
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+
+import io.github.albertus82.git.gui.GitAutoSyncGui;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class SyncNowListener extends SelectionAdapter {
+
+	@NonNull
+	private final GitAutoSyncGui gui;
+
+	@Override
+	public void widgetSelected(final SelectionEvent event) {
+		final var service = gui.getService();
+		if (service != null) {
+			service.syncNow();
+		}
+	}
+
+}
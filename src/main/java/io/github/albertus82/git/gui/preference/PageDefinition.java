@@ -4,7 +4,6 @@ import java.util.Locale;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 
-import io.github.albertus82.git.resources.ConfigurableMessages;
 import io.github.albertus82.git.resources.Messages;
 import io.github.albertus82.jface.preference.page.BasePreferencePage;
 import io.github.albertus82.jface.preference.page.IPageDefinition;
@@ -15,12 +14,12 @@ import io.github.albertus82.jface.preference.page.PageDefinitionDetails.PageDefi
 public enum PageDefinition implements IPageDefinition {
 
 	GENERAL,
+	SYNC,
+	ENGINE,
 	LOGGING(new PageDefinitionDetailsBuilder().pageClass(LoggingPreferencePage.class).build());
 
 	private static final String LABEL_KEY_PREFIX = "label.preferences.";
 
-	private static final ConfigurableMessages messages = Messages.INSTANCE;
-
 	private final PageDefinitionDetails pageDefinitionDetails;
 
 	PageDefinition() {
@@ -33,7 +32,7 @@ public enum PageDefinition implements IPageDefinition {
 			pageDefinitionDetails.setNodeId(name().toLowerCase(Locale.ROOT).replace('_', '.'));
 		}
 		if (pageDefinitionDetails.getLabel() == null) {
-			pageDefinitionDetails.setLabel(() -> messages.get(LABEL_KEY_PREFIX + pageDefinitionDetails.getNodeId()));
+			pageDefinitionDetails.setLabel(() -> Messages.INSTANCE.get(LABEL_KEY_PREFIX + pageDefinitionDetails.getNodeId()));
 		}
 	}
 
@@ -1,6 +1,8 @@
 package io.github.albertus82.git.gui.preference;
 
+import static io.github.albertus82.git.gui.preference.PageDefinition.ENGINE;
 import static io.github.albertus82.git.gui.preference.PageDefinition.GENERAL;
+import static io.github.albertus82.git.gui.preference.PageDefinition.SYNC;
 
 import java.awt.SystemTray;
 import java.net.Proxy;
@@ -15,6 +17,8 @@ import org.eclipse.jface.preference.FieldEditor;
 import org.eclipse.swt.widgets.Composite;
 
 import io.github.albertus82.git.config.LanguageConfigAccessor;
+import io.github.albertus82.git.engine.GitSyncService;
+import io.github.albertus82.git.engine.IntegrationMode;
 import io.github.albertus82.git.gui.CloseDialog;
 import io.github.albertus82.git.gui.GitAutoSyncGui;
 import io.github.albertus82.git.gui.TrayIcon;
@@ -31,7 +35,10 @@ import io.github.albertus82.jface.preference.StaticLabelsAndValues;
 import io.github.albertus82.jface.preference.field.DefaultBooleanFieldEditor;
 import io.github.albertus82.jface.preference.field.DefaultComboFieldEditor;
 import io.github.albertus82.jface.preference.field.EnhancedDirectoryFieldEditor;
+import io.github.albertus82.jface.preference.field.EnhancedFileFieldEditor;
+import io.github.albertus82.jface.preference.field.EnhancedIntegerFieldEditor;
 import io.github.albertus82.jface.preference.field.EnhancedStringFieldEditor;
+import io.github.albertus82.jface.preference.field.LocalizedPathEditor;
 import io.github.albertus82.jface.preference.field.PasswordFieldEditor;
 import io.github.albertus82.jface.preference.page.IPageDefinition;
 
@@ -46,8 +53,35 @@ public enum Preference implements IPreference {
 	SYNC_ON_START(new PreferenceDetailsBuilder(GENERAL).defaultValue(GitAutoSyncGui.Defaults.SYNC_ON_START).build(), new FieldEditorDetailsBuilder(DefaultBooleanFieldEditor.class).build()),
 
 	REPO_PATH(new PreferenceDetailsBuilder(GENERAL).build(), new FieldEditorDetailsBuilder(EnhancedDirectoryFieldEditor.class).emptyStringAllowed(false).textLimit(255).build()),
+	REPO_URL(new PreferenceDetailsBuilder(GENERAL).build(), new FieldEditorDetailsBuilder(EnhancedStringFieldEditor.class).textLimit(2048).build()),
 	REPO_USERNAME(new PreferenceDetailsBuilder(GENERAL).build(), new FieldEditorDetailsBuilder(EnhancedStringFieldEditor.class).emptyStringAllowed(false).textLimit(39).build()),
-	REPO_PASSWORD(new PreferenceDetailsBuilder(GENERAL).build(), new FieldEditorDetailsBuilder(PasswordFieldEditor.class).emptyStringAllowed(false).textLimit(255).build());
+	REPO_PASSWORD(new PreferenceDetailsBuilder(GENERAL).build(), new FieldEditorDetailsBuilder(PasswordFieldEditor.class).emptyStringAllowed(false).textLimit(255).build()),
+	REPO_SSH_KEY(new PreferenceDetailsBuilder(GENERAL).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedFileFieldEditor.class).fileEnforceAbsolute(true).build()),
+	REPO_PATHS(new PreferenceDetailsBuilder(GENERAL).restartRequired().build(), new FieldEditorDetailsBuilder(LocalizedPathEditor.class).directoryDialogMessage(() -> Messages.INSTANCE.get("message.preferences.directory.dialog.message.repo")).build()),
+
+	SYNC_QUIET_PERIOD(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_QUIET_PERIOD).build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 600).build()),
+	SYNC_MAX_DELAY(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_MAX_DELAY).build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(1, 3600).build()),
+	SYNC_PULL_INTERVAL_MIN(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_PULL_INTERVAL_MIN).separate().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(5, 3600).build()),
+	SYNC_PULL_INTERVAL_MAX(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_PULL_INTERVAL_MAX).build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(5, 86400).build()),
+	SYNC_PUSH_WINDOW(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_PUSH_WINDOW).build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 3600).build()),
+	SYNC_INTEGRATION(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_INTEGRATION).separate().build(), new FieldEditorDetailsBuilder(DefaultComboFieldEditor.class).labelsAndValues(Preference.getIntegrationModeComboOptions()).build()),
+	SYNC_CONFLICT_RULES(new PreferenceDetailsBuilder(SYNC).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedStringFieldEditor.class).textLimit(2048).build()),
+	SYNC_TEXT_MERGE_EXTENSIONS(new PreferenceDetailsBuilder(SYNC).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedStringFieldEditor.class).textLimit(2048).build()),
+	SYNC_CLONE_DEPTH(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_CLONE_DEPTH).separate().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 1_000_000).build()),
+	SYNC_CLONE_SINCE_DAYS(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_CLONE_SINCE_DAYS).build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 36500).build()),
+	SYNC_LARGE_FILE_THRESHOLD(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_LARGE_FILE_THRESHOLD).restartRequired().separate().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 1_000_000).build()),
+	SYNC_LARGE_FILE_STORE(new PreferenceDetailsBuilder(SYNC).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedDirectoryFieldEditor.class).textLimit(255).build()),
+	SYNC_EXCLUDE_DIRECTORIES(new PreferenceDetailsBuilder(SYNC).restartRequired().separate().build(), new FieldEditorDetailsBuilder(EnhancedStringFieldEditor.class).textLimit(2048).build()),
+	SYNC_EXCLUDE_MAX_FILE_SIZE(new PreferenceDetailsBuilder(SYNC).defaultValue(GitSyncService.Defaults.SYNC_EXCLUDE_MAX_FILE_SIZE).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(0, 1_000_000).build()),
+
+	ENGINE_PACKED_GIT_WINDOW_SIZE(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_PACKED_GIT_WINDOW_SIZE).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(4, 1024).build()),
+	ENGINE_PACKED_GIT_LIMIT(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_PACKED_GIT_LIMIT).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(1, 4096).build()),
+	ENGINE_PACKED_GIT_MMAP(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_PACKED_GIT_MMAP).restartRequired().build(), new FieldEditorDetailsBuilder(DefaultBooleanFieldEditor.class).build()),
+	ENGINE_DELTA_BASE_CACHE_LIMIT(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_DELTA_BASE_CACHE_LIMIT).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(1, 1024).build()),
+	ENGINE_STREAM_FILE_THRESHOLD(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_STREAM_FILE_THRESHOLD).restartRequired().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(1, 2047).build()),
+	ENGINE_WORKER_THREADS(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_WORKER_THREADS).restartRequired().separate().build(), new FieldEditorDetailsBuilder(EnhancedIntegerFieldEditor.class).numberValidRange(1, 64).build()),
+	ENGINE_VIRTUAL_THREADS(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_VIRTUAL_THREADS).restartRequired().build(), new FieldEditorDetailsBuilder(DefaultBooleanFieldEditor.class).build()),
+	ENGINE_HTTP_CLIENT(new PreferenceDetailsBuilder(ENGINE).defaultValue(GitSyncService.Defaults.ENGINE_HTTP_CLIENT).restartRequired().separate().build(), new FieldEditorDetailsBuilder(DefaultBooleanFieldEditor.class).build());
 
 	//	LOGGING_LEVEL(new PreferenceDetailsBuilder(LOGGING).defaultValue(ApplicationConfig.Defaults.LOGGING_LEVEL.getName()).build(), new FieldEditorDetailsBuilder(DefaultComboFieldEditor.class).labelsAndValues(LoggingPreferencePage.getLoggingLevelComboOptions()).build()),
 	//	LOGGING_FILES_ENABLED(new PreferenceDetailsBuilder(LOGGING).separate().defaultValue(ApplicationConfig.Defaults.LOGGING_FILES_ENABLED).build(), new FieldEditorDetailsBuilder(DefaultBooleanFieldEditor.class).build()),
@@ -135,6 +169,16 @@ public enum Preference implements IPreference {
 		return options;
 	}
 
+	public static LocalizedLabelsAndValues getIntegrationModeComboOptions() {
+		final IntegrationMode[] values = IntegrationMode.values();
+		final LocalizedLabelsAndValues options = new LocalizedLabelsAndValues(values.length);
+		for (final IntegrationMode mode : values) {
+			final String value = mode.name();
+			options.add(() -> Messages.INSTANCE.get(LABEL_KEY_PREFIX + "sync.integration." + value.toLowerCase(Locale.ROOT)), value);
+		}
+		return options;
+	}
+
 	public static StaticLabelsAndValues getTimeZoneComboOptions() {
 		final Collection<String> zones = new TreeSet<>(ZoneId.getAvailableZoneIds());
 		final StaticLabelsAndValues options = new StaticLabelsAndValues(zones.size());